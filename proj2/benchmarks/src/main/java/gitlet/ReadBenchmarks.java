@@ -0,0 +1,39 @@
+package gitlet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Commands which only read the repository, so that the repository is the same for every invocation. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmarks {
+    @Benchmark
+    public void status(SyntheticRepository repo) {
+        repo.gitlet("status");
+    }
+
+    @Benchmark
+    public void log(SyntheticRepository repo) {
+        repo.gitlet("log");
+    }
+
+    @Benchmark
+    public void globalLog(SyntheticRepository repo) {
+        repo.gitlet("global-log");
+    }
+
+    @Benchmark
+    public void find(SyntheticRepository repo) {
+        repo.gitlet("find", "commit 1");
+    }
+
+    /** Split point of master and other, from the commit-graph. */
+    @Benchmark
+    public String mergeBase(SyntheticRepository repo) {
+        return CommitGraph.get(Repository.GITLET_DIR.getPath()).mergeBase(repo.masterTip, repo.otherTip);
+    }
+}
@@ -0,0 +1,128 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * A repository generated for benchmarks in a temporary directory, which becomes CWD of the
+ * benchmark JVM (JMH forks one for each benchmark and parameters, and CWD is fixed once
+ * Repository is loaded). It has text files of fileSize bytes, and a history of depth
+ * commits on master, each changing a few files. Branch "other" forks from the middle of the
+ * history and changes other files, so that it merges into master without conflicts.
+ *
+ * Commands run through Main.run like in the daemon, so state and caches stay loaded between
+ * them, and their output is discarded.
+ */
+@State(Scope.Benchmark)
+public class SyntheticRepository {
+    /** Number of files changed by each commit. */
+    static final int CHANGES_PER_COMMIT = 3;
+    /** Length of lines of files. */
+    private static final int LINE_LENGTH = 64;
+
+    @Param({"100", "1000"})
+    public int files;
+
+    @Param({"1024"})
+    public int fileSize;
+
+    @Param({"100"})
+    public int depth;
+
+    /** Head commit of master after the history is made. */
+    String masterTip;
+    /** Head commit of other after the history is made. */
+    String otherTip;
+
+    private File dir;
+    private PrintStream stdout;
+    private final Random random = new Random(0x6769746c6574L);
+
+    @Setup(Level.Trial)
+    public void create() throws IOException {
+        dir = Files.createTempDirectory("gitlet-benchmark").toFile();
+        System.setProperty("user.dir", dir.getPath()); // Before Repository is loaded
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        gitlet("init");
+        writeContents(join(dir, ".gitlet", "config"), Config.FSYNC + "=false\n"); // Measure gitlet, not the disk
+        for (int i = 0; i < files; i += 1) {
+            change(i);
+        }
+        gitlet("add", ".");
+        gitlet("commit", "commit 0");
+
+        /* Master changes the first half of files, and other the second half */
+        for (int commit = 1; commit < depth; commit += 1) {
+            if (commit == depth / 2) {
+                gitlet("branch", "other");
+            }
+            commit(0, files / 2, "commit " + commit);
+        }
+        masterTip = Repository.HEAD.headCommit;
+        gitlet("checkout", "other");
+        for (int commit = depth / 2; commit < depth; commit += 1) {
+            commit(files / 2, files, "other commit " + commit);
+        }
+        otherTip = Repository.HEAD.headCommit;
+        gitlet("checkout", "master");
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        System.setOut(stdout);
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /** Run gitlet command. */
+    void gitlet(String... args) {
+        Main.run(args);
+    }
+
+    /** Return name of file with given number. */
+    String fileName(int number) {
+        return String.format("f%06d.txt", number);
+    }
+
+    /** Write new random contents to file with given number. */
+    void change(int number) {
+        byte[] contents = new byte[fileSize];
+        for (int i = 0; i < contents.length; i += 1) {
+            contents[i] = (i + 1) % LINE_LENGTH == 0 ? (byte) '\n' : (byte) ('a' + random.nextInt(26));
+        }
+        writeContents(join(dir, fileName(number)), (Object) contents);
+    }
+
+    /** Change a few files with numbers in [from, to), then add and commit them. */
+    private void commit(int from, int to, String message) {
+        String[] names = new String[CHANGES_PER_COMMIT];
+        for (int i = 0; i < names.length; i += 1) {
+            int number = from + random.nextInt(to - from);
+            change(number);
+            names[i] = fileName(number);
+        }
+        gitlet(prepend("add", names));
+        gitlet("commit", message);
+    }
+
+    private static String[] prepend(String first, String[] rest) {
+        String[] result = new String[rest.length + 1];
+        result[0] = first;
+        System.arraycopy(rest, 0, result, 1, rest.length);
+        return result;
+    }
+}
@@ -0,0 +1,60 @@
+package gitlet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Commands which change the repository. Each is prepared by a per-invocation setup (not
+ * measured), so that every invocation does the same work: commit has a change staged, and
+ * merge starts from master before the merge.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmarks {
+    /** A new version of a file, staged for commit. */
+    @State(Scope.Thread)
+    public static class Staged {
+        @Setup(Level.Invocation)
+        public void stage(SyntheticRepository repo) {
+            repo.change(0);
+            repo.gitlet("add", repo.fileName(0));
+        }
+    }
+
+    /** Master moved back to its head before the merge. */
+    @State(Scope.Thread)
+    public static class Unmerged {
+        @Setup(Level.Invocation)
+        public void reset(SyntheticRepository repo) {
+            repo.gitlet("reset", repo.masterTip);
+        }
+    }
+
+    /** Write a new version of a file and stage it. */
+    @Benchmark
+    public void add(SyntheticRepository repo) {
+        repo.change(0);
+        repo.gitlet("add", repo.fileName(0));
+    }
+
+    @Benchmark
+    public void commit(SyntheticRepository repo, Staged staged) {
+        repo.gitlet("commit", "benchmark commit");
+    }
+
+    /** Check out other, then master again. */
+    @Benchmark
+    public void checkoutBranch(SyntheticRepository repo) {
+        repo.gitlet("checkout", "other");
+        repo.gitlet("checkout", "master");
+    }
+
+    @Benchmark
+    public void merge(SyntheticRepository repo, Unmerged unmerged) {
+        repo.gitlet("merge", "other");
+    }
+}
@@ -0,0 +1,312 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of non-negative ints, in the style of Roaring bitmaps. Values are grouped
+ * by their high 16 bits into containers; a container holds the low 16 bits either as a sorted
+ * array (when it has at most ARRAY_MAX values) or as a 65536-bit bitmap. So sparse sets stay
+ * small, dense ones cost 8KB per 65536 values, and set operations work container by container.
+ */
+class Bitmap {
+    /** Max number of values in an array container. */
+    private static final int ARRAY_MAX = 4096;
+    /** Number of longs in a bitmap container. */
+    private static final int WORDS = 1 << 10;
+
+    /** Low 16 bits of values sharing the same high 16 bits. */
+    private static final class Container {
+        /** Sorted values, or null if bits is used. */
+        char[] array;
+        /** Bitmap of values, or null if array is used. */
+        long[] bits;
+        /** Number of values. */
+        int cardinality;
+
+        static Container ofArray(char[] array, int cardinality) {
+            Container container = new Container();
+            container.array = array;
+            container.cardinality = cardinality;
+            return container;
+        }
+
+        static Container ofBits(long[] bits) {
+            Container container = new Container();
+            container.bits = bits;
+            for (long word : bits) {
+                container.cardinality += Long.bitCount(word);
+            }
+            return container.cardinality <= ARRAY_MAX ? container.toArray() : container;
+        }
+
+        boolean contains(char value) {
+            if (bits != null) {
+                return (bits[value >>> 6] & (1L << value)) != 0;
+            }
+            return Arrays.binarySearch(array, 0, cardinality, value) >= 0;
+        }
+
+        void add(char value) {
+            if (bits != null) {
+                if ((bits[value >>> 6] & (1L << value)) == 0) {
+                    bits[value >>> 6] |= 1L << value;
+                    cardinality += 1;
+                }
+                return;
+            }
+            int index = Arrays.binarySearch(array, 0, cardinality, value);
+            if (index >= 0) {
+                return;
+            }
+            if (cardinality == ARRAY_MAX) {
+                bits = toBits();
+                array = null;
+                add(value);
+                return;
+            }
+            index = -index - 1;
+            if (cardinality == array.length) {
+                array = Arrays.copyOf(array, Math.min(ARRAY_MAX, Math.max(4, array.length * 2)));
+            }
+            System.arraycopy(array, index, array, index + 1, cardinality - index);
+            array[index] = value;
+            cardinality += 1;
+        }
+
+        Container copy() {
+            Container container = new Container();
+            container.array = array == null ? null : array.clone();
+            container.bits = bits == null ? null : bits.clone();
+            container.cardinality = cardinality;
+            return container;
+        }
+
+        long[] toBits() {
+            if (bits != null) {
+                return bits.clone();
+            }
+            long[] result = new long[WORDS];
+            for (int i = 0; i < cardinality; i += 1) {
+                result[array[i] >>> 6] |= 1L << array[i];
+            }
+            return result;
+        }
+
+        Container toArray() {
+            char[] result = new char[cardinality];
+            int i = 0;
+            for (int word = 0; word < WORDS; word += 1) {
+                for (long w = bits[word]; w != 0; w &= w - 1) {
+                    result[i] = (char) (word << 6 | Long.numberOfTrailingZeros(w));
+                    i += 1;
+                }
+            }
+            return ofArray(result, cardinality);
+        }
+
+        Container or(Container other) {
+            if (array != null && other.array != null && cardinality + other.cardinality <= ARRAY_MAX) {
+                char[] result = new char[cardinality + other.cardinality];
+                int i = 0;
+                int j = 0;
+                int k = 0;
+                while (i < cardinality || j < other.cardinality) {
+                    if (j == other.cardinality || i < cardinality && array[i] < other.array[j]) {
+                        result[k++] = array[i++];
+                    } else if (i == cardinality || other.array[j] < array[i]) {
+                        result[k++] = other.array[j++];
+                    } else {
+                        result[k++] = array[i++];
+                        j += 1;
+                    }
+                }
+                return ofArray(result, k);
+            }
+            long[] result = toBits();
+            if (other.bits != null) {
+                for (int word = 0; word < WORDS; word += 1) {
+                    result[word] |= other.bits[word];
+                }
+            } else {
+                for (int j = 0; j < other.cardinality; j += 1) {
+                    result[other.array[j] >>> 6] |= 1L << other.array[j];
+                }
+            }
+            return ofBits(result);
+        }
+
+        /** Return values not in other, or return null if none. */
+        Container andNot(Container other) {
+            Container result;
+            if (array != null) {
+                char[] values = new char[cardinality];
+                int k = 0;
+                for (int i = 0; i < cardinality; i += 1) {
+                    if (!other.contains(array[i])) {
+                        values[k++] = array[i];
+                    }
+                }
+                result = ofArray(values, k);
+            } else {
+                long[] values = bits.clone();
+                long[] otherBits = other.toBits();
+                for (int word = 0; word < WORDS; word += 1) {
+                    values[word] &= ~otherBits[word];
+                }
+                result = ofBits(values);
+            }
+            return result.cardinality == 0 ? null : result;
+        }
+
+        void forEach(int high, IntConsumer action) {
+            if (array != null) {
+                for (int i = 0; i < cardinality; i += 1) {
+                    action.accept(high | array[i]);
+                }
+                return;
+            }
+            for (int word = 0; word < WORDS; word += 1) {
+                for (long w = bits[word]; w != 0; w &= w - 1) {
+                    action.accept(high | word << 6 | Long.numberOfTrailingZeros(w));
+                }
+            }
+        }
+    }
+
+    /** High 16 bits of containers, sorted. */
+    private char[] keys = new char[4];
+    /** Containers in order of keys. */
+    private Container[] containers = new Container[4];
+    /** Number of containers. */
+    private int size = 0;
+
+    /** Return index of container with given key, or (-insertion point - 1) if none. */
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    /** Append container, whose key is larger than all keys. */
+    private void append(char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        keys[size] = key;
+        containers[size] = container;
+        size += 1;
+    }
+
+    void add(int value) {
+        char key = (char) (value >>> 16);
+        int index = find(key);
+        if (index < 0) {
+            index = -index - 1;
+            append(key, null); // Grow, then shift to make room
+            System.arraycopy(keys, index, keys, index + 1, size - 1 - index);
+            System.arraycopy(containers, index, containers, index + 1, size - 1 - index);
+            keys[index] = key;
+            containers[index] = Container.ofArray(new char[4], 0);
+        }
+        containers[index].add((char) value);
+    }
+
+    boolean contains(int value) {
+        int index = find((char) (value >>> 16));
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    /** Return number of values. */
+    int cardinality() {
+        int result = 0;
+        for (int i = 0; i < size; i += 1) {
+            result += containers[i].cardinality;
+        }
+        return result;
+    }
+
+    /** Return values in this or other. */
+    Bitmap or(Bitmap other) {
+        Bitmap result = new Bitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || i < size && keys[i] < other.keys[j]) {
+                result.append(keys[i], containers[i].copy());
+                i += 1;
+            } else if (i == size || other.keys[j] < keys[i]) {
+                result.append(other.keys[j], other.containers[j].copy());
+                j += 1;
+            } else {
+                result.append(keys[i], containers[i].or(other.containers[j]));
+                i += 1;
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return values in this but not in other. */
+    Bitmap andNot(Bitmap other) {
+        Bitmap result = new Bitmap();
+        for (int i = 0; i < size; i += 1) {
+            int j = other.find(keys[i]);
+            Container container = j < 0 ? containers[i].copy() : containers[i].andNot(other.containers[j]);
+            if (container != null) {
+                result.append(keys[i], container);
+            }
+        }
+        return result;
+    }
+
+    /** Run action on each value in ascending order. */
+    void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i += 1) {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    /** Write as: number of containers, then for each its key, cardinality and values (array) or 1024 longs (bitmap). */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i += 1) {
+            Container container = containers[i];
+            out.writeChar(keys[i]);
+            out.writeInt(container.cardinality);
+            if (container.array != null) {
+                for (int k = 0; k < container.cardinality; k += 1) {
+                    out.writeChar(container.array[k]);
+                }
+            } else {
+                for (long word : container.bits) {
+                    out.writeLong(word);
+                }
+            }
+        }
+    }
+
+    static Bitmap read(DataInputStream in) throws IOException {
+        Bitmap bitmap = new Bitmap();
+        for (int i = in.readInt(); i > 0; i -= 1) {
+            char key = in.readChar();
+            int cardinality = in.readInt();
+            if (cardinality <= ARRAY_MAX) {
+                char[] array = new char[cardinality];
+                for (int k = 0; k < cardinality; k += 1) {
+                    array[k] = in.readChar();
+                }
+                bitmap.append(key, Container.ofArray(array, cardinality));
+            } else {
+                long[] bits = new long[WORDS];
+                for (int k = 0; k < WORDS; k += 1) {
+                    bits[k] = in.readLong();
+                }
+                bitmap.append(key, Container.ofBits(bits));
+            }
+        }
+        return bitmap;
+    }
+}
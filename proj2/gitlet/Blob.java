@@ -1,33 +1,325 @@
 package gitlet;
 
-import java.io.File;
-import java.io.Serializable;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.DeflaterOutputStream;
 
 import static gitlet.Utils.*;
 import static gitlet.FileSystem.*;
 import static gitlet.Repository.*;
 
+/**
+ * A version of file contents. Like git, a blob is stored as "blob LENGTH\0CONTENTS"
+ * compressed with zlib, and its SHA-1 is computed over the uncompressed form, so
+ * that blobs can be hashed, written and read in one pass with a bounded buffer.
+ *
+ * Files of at least Config.CHUNK_THRESHOLD bytes are cut into content-defined chunks
+ * (see Chunker), each saved as a "chunk" object, so that chunks are shared by all files
+ * and versions with the same data. The blob is then saved as a "chunked" object listing
+ * its chunks, under the same SHA-1 as if it were whole, so nothing else tells them apart.
+ *
+ * Blobs of old repositories were serialized Java objects, which can still be read.
+ */
 final class Blob implements Serializable {
-    /** Name of the file. */
+    /** Same as serialized blobs of old repositories. */
+    private static final long serialVersionUID = -4366960570583299474L;
+    /** Size of buffer used for streaming. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Type of blobs saved as a list of chunks. */
+    static final String CHUNKED_TYPE = "chunked";
+    /** Type of chunks of blobs. */
+    static final String CHUNK_TYPE = "chunk";
+    /** Default min size in bytes of files saved as chunks. */
+    static final int DEFAULT_CHUNK_THRESHOLD = 4 << 20;
+
+    /** Name of the file (only in blobs of old repositories). */
     String name;
     /** Contents of the file. */
     byte[] contents;
 
-    /** Create a new blob and save it in OBJECTS_DIR. */
-    Blob(File file) {
-        name = file.getName();
-        contents = readContents(file);
-        saveObject(this, GITLET_DIR.getPath());
+    private Blob(byte[] contents) {
+        this.contents = contents;
+    }
+
+    /** Return SHA-1 of the file as a blob, without saving it. */
+    static String hash(File file) {
+        return write(file, null);
+    }
+
+    /** Return whether file in CWD has the same contents as blob with given SHA-1. */
+    static boolean isSame(String fileName, String hash) {
+        if (hash == null) {
+            return false;
+        } else if (hash.equals(Index.get().hash(fileName))) {
+            return true;
+        }
+
+        /* SHA-1 of blobs of old repositories is computed differently */
+        InputStream in = openObject(hash, GITLET_DIR.getPath());
+        byte[] prefix = new byte[0];
+        if (in != null) {
+            try (in) {
+                prefix = in.readNBytes(2);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return isSerialized(prefix) && Arrays.equals(get(hash).contents, readContents(join(CWD, fileName)));
+    }
+
+    /** Save the file as a blob in OBJECTS_DIR (if not exist yet), and return its SHA-1. */
+    static String save(File file) {
+        if (file.length() >= Config.getInt(Config.CHUNK_THRESHOLD, DEFAULT_CHUNK_THRESHOLD)) {
+            return saveChunked(file);
+        }
+        File objectDir = join(GITLET_DIR, "objects");
+        File temp;
+        try {
+            temp = File.createTempFile("tmp_obj_", null, objectDir);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        String hash = write(file, temp);
+        if (containsObject(hash, GITLET_DIR.getPath())) {
+            temp.delete();
+            return hash;
+        }
+
+        File obj = looseObjectFile(hash, GITLET_DIR.getPath());
+        obj.getParentFile().mkdir();
+        try {
+            Files.move(temp.toPath(), obj.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.written(GITLET_DIR.getPath(), obj);
+        PrefixIndex.added(hash, GITLET_DIR.getPath());
+        return hash;
+    }
+
+    /** Save chunks of the file and the list of them, in one pass. Return SHA-1 of the file as a blob. */
+    private static String saveChunked(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            long length = file.length();
+            md.update(("blob " + length + "\0").getBytes(StandardCharsets.UTF_8));
+
+            List<String> chunks = new ArrayList<>();
+            List<Integer> lengths = new ArrayList<>();
+            Chunker chunker = new Chunker(in);
+            long total = 0;
+            for (byte[] chunk = chunker.next(); chunk != null; chunk = chunker.next()) {
+                md.update(chunk);
+                total += chunk.length;
+                ByteArrayOutputStream contents = new ByteArrayOutputStream(chunk.length + 16);
+                contents.writeBytes((CHUNK_TYPE + " " + chunk.length + "\0").getBytes(StandardCharsets.UTF_8));
+                contents.writeBytes(chunk);
+                chunks.add(saveContents(contents.toByteArray(), GITLET_DIR.getPath()));
+                lengths.add(chunk.length);
+            }
+            if (total != length) {
+                throw error("File %s changed while reading.", file.getName());
+            }
+
+            Encoding.Writer out = new Encoding.Writer(CHUNKED_TYPE).writeVarint(length).writeVarint(chunks.size());
+            for (int i = 0; i < chunks.size(); i += 1) {
+                out.writeHash(chunks.get(i)).writeVarint(lengths.get(i));
+            }
+            return saveContents(toHex(md.digest()), out.toContents(), GITLET_DIR.getPath());
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return SHA-1 of chunks if contents is a chunked blob, otherwise return an empty list. */
+    static List<String> chunksOf(byte[] contents) {
+        List<String> chunks = new ArrayList<>();
+        if (CHUNKED_TYPE.equals(typeOf(contents))) {
+            Encoding.Reader in = new Encoding.Reader(contents, CHUNKED_TYPE);
+            in.readVarint(); // Length of the blob
+            for (int i = in.readCount(); i > 0; i -= 1) {
+                chunks.add(in.readHash());
+                in.readVarint();
+            }
+        }
+        return chunks;
+    }
+
+    /** Return a stream of contents of chunked blob, reading one chunk at a time. */
+    private static InputStream openChunks(byte[] contents) {
+        Iterator<String> chunks = chunksOf(contents).iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return chunks.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String chunk = chunks.next();
+                InputStream in = openObject(chunk, GITLET_DIR.getPath());
+                if (in == null) {
+                    throw error("Chunk %s does not exist.", chunk);
+                }
+                try {
+                    for (int b = in.read(); b != 0; b = in.read()) { // Skip "chunk LENGTH\0"
+                        if (b < 0) {
+                            throw error("Corrupted chunk %s.", chunk);
+                        }
+                    }
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+                return in;
+            }
+        });
+    }
+
+    /** Hash the file as a blob and write it compressed to target (if not null) in one pass. Return SHA-1. */
+    private static String write(File file, File target) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            long length = file.length();
+            byte[] header = ("blob " + length + "\0").getBytes(StandardCharsets.UTF_8);
+            md.update(header);
+
+            OutputStream out = target == null ? null
+                    : new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(target)));
+            try (InputStream in = new FileInputStream(file)) {
+                if (out != null) {
+                    out.write(header);
+                }
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long total = 0;
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    md.update(buffer, 0, n);
+                    if (out != null) {
+                        out.write(buffer, 0, n);
+                    }
+                    total += n;
+                }
+                if (total != length) {
+                    throw error("File %s changed while reading.", file.getName());
+                }
+            } finally {
+                if (out != null) {
+                    out.close();
+                }
+            }
+            return toHex(md.digest());
+        } catch (IOException | NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return a stream of contents of blob with given SHA-1, or return null if not find. Blobs are
+     * streamed from loose objects and packs, except those stored as delta in packs.
+     */
+    static InputStream open(String hash) {
+        InputStream object = openObject(hash, GITLET_DIR.getPath());
+        if (object == null) {
+            return null;
+        }
+        try {
+            InputStream in = new BufferedInputStream(object, BUFFER_SIZE);
+            in.mark(2);
+            boolean isSerialized = in.read() == 0xac && in.read() == 0xed;
+            in.reset();
+            if (!isSerialized) {
+                return skipHeader(in);
+            }
+
+            /* Blob of old repositories */
+            Blob blob = readObject(in);
+            return new ByteArrayInputStream(blob.contents == null ? new byte[0] : blob.contents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Skip "blob LENGTH\0" at the beginning of the stream, or open chunks if it is a chunked blob. */
+    private static InputStream skipHeader(InputStream in) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        for (int b = in.read(); b != 0; b = in.read()) {
+            if (b < 0) {
+                throw error("Corrupted blob.");
+            }
+            header.write(b);
+        }
+        if (header.toString(StandardCharsets.UTF_8).startsWith(CHUNKED_TYPE + " ")) {
+            header.write(0);
+            header.writeBytes(in.readAllBytes()); // The list of chunks is small
+            in.close();
+            return openChunks(header.toByteArray());
+        }
+        return in;
+    }
+
+    private static Blob readObject(InputStream in) throws IOException {
+        try (ObjectInputStream objectIn = new ObjectInputStream(in)) {
+            return (Blob) objectIn.readObject();
+        } catch (ClassNotFoundException | ClassCastException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Return SHA-1 of blob with given SHA-1 in the current format. Blob of old repositories is
+     * saved again in the current format.
+     */
+    static String migrate(String hash) {
+        byte[] raw = readObjectContents(hash, GITLET_DIR.getPath());
+        if (raw == null || !isSerialized(raw)) {
+            return hash;
+        }
+        byte[] contents = read(hash).contents;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(("blob " + contents.length + "\0").getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(contents);
+        return saveContents(out.toByteArray(), GITLET_DIR.getPath());
+    }
+
+    /** Write contents of blob with given SHA-1 to the file, without reading it into memory. */
+    static void copyTo(String hash, File file) {
+        InputStream in = open(hash);
+        if (in == null) {
+            throw error("File does not exist.");
+        }
+        try (in) {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     /** Search blob with given ID in file system (support abbreviate search). */
     public static Blob get(String ID) {
-        File file = abbreviateSearch(ID, GITLET_DIR.getPath());
-        if (file == null) {
-            message("File does not exist.");
-            System.exit(0);
+        String hash = ID != null && ID.length() == UID_LENGTH ? ID : abbreviateSearch(ID, GITLET_DIR.getPath());
+        Blob blob = hash == null ? null : ObjectCache.load(hash, Blob.class, Blob::read, (b) -> 64 + b.contents.length);
+        if (blob == null) {
+            throw error("File does not exist.");
         }
+        return blob;
+    }
 
-        return readObject(file, Blob.class);
+    /** Return blob with given SHA-1, or return null if not find. */
+    private static Blob read(String hash) {
+        InputStream in = open(hash);
+        if (in == null) {
+            return null;
+        }
+        try (in) {
+            return new Blob(in.readAllBytes());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 }
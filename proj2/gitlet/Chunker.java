@@ -0,0 +1,94 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Content-defined chunking by FastCDC: a chunk ends where a gear hash of the last bytes has
+ * the bits of a mask all zero, so that boundaries move with the contents, and an edit only
+ * changes the chunks around it. Like FastCDC, chunks are cut with a harder mask before the
+ * average size and an easier one after it (normalized chunking), hashing is skipped within
+ * the min size, and a chunk is cut anyway at the max size.
+ */
+class Chunker {
+    /** Min size of a chunk (except the last one). */
+    static final int MIN_SIZE = 16 << 10;
+    /** Average size of a chunk. */
+    static final int AVERAGE_SIZE = 64 << 10;
+    /** Max size of a chunk. */
+    static final int MAX_SIZE = 256 << 10;
+
+    /** Mask before the average size: 2 more bits than log2(AVERAGE_SIZE), taken from the top of the hash. */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    /** Mask after the average size: 2 fewer bits than log2(AVERAGE_SIZE). */
+    private static final long MASK_LARGE = -1L << (64 - 14);
+    /** Random value of each byte, fixed so that chunks are the same in every repository. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final InputStream in;
+    /** Bytes read but not returned as chunks yet, in [start, end). */
+    private final byte[] buffer = new byte[2 * MAX_SIZE];
+    private int start = 0;
+    private int end = 0;
+    private boolean eof = false;
+
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /** Return the next chunk, or return null at the end of the stream. */
+    byte[] next() throws IOException {
+        if (end - start < MAX_SIZE && !eof) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+            while (end < buffer.length && !eof) {
+                int n = in.read(buffer, end, buffer.length - end);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    end += n;
+                }
+            }
+        }
+        if (start == end) {
+            return null;
+        }
+        int length = cut(buffer, start, Math.min(end - start, MAX_SIZE));
+        byte[] chunk = Arrays.copyOfRange(buffer, start, start + length);
+        start += length;
+        return chunk;
+    }
+
+    /** Return length of the chunk beginning at offset, with n bytes available. */
+    static int cut(byte[] bytes, int offset, int n) {
+        if (n <= MIN_SIZE) {
+            return n;
+        }
+        long hash = 0;
+        int normal = Math.min(n, AVERAGE_SIZE);
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[bytes[offset + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i += 1) {
+            hash = (hash << 1) + GEAR[bytes[offset + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+}
@@ -1,23 +1,39 @@
 package gitlet;
 
-import java.io.File;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 import static gitlet.Repository.*;
 import static gitlet.FileSystem.*;
 import static gitlet.Utils.*;
 
-final class Commit implements Serializable {
+final class Commit implements Serializable, GitletObject {
+    /** Same as serialized commits of old repositories. */
+    private static final long serialVersionUID = 1915645843322349198L;
+    /** Type of commit objects. */
+    static final String TYPE = "commit";
+    /** Format of dates in log (immutable, so it is shared). */
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss yyyy Z", Locale.US);
+
     /** The message of this Commit. */
     String message;
     /** The time when the commit is made. */
     Date timeStamp;
     /** Reference to parent commits. */
     String[] parents;
-    /** Map file name to SHA-1. */
-    Map<String, String> files = new TreeMap<>();
+    /** SHA-1 of the root tree. */
+    String tree;
+    /** Map file name to SHA-1 (only in commits of old repositories, which have no tree). */
+    Map<String, String> files;
+    /** Map file name to SHA-1, which walks trees lazily. */
+    private transient Map<String, String> fileMap;
+    /** SHA-1 of tree built from files of commits of old repositories. */
+    private transient String builtTree;
+    /** SHA-1 of this commit, set when it is saved or loaded. */
+    transient String id;
 
     /** Create a new commit and save it in OBJECTS_DIR. */
     Commit(String message, Date timeStamp, String parent2) {
@@ -25,62 +41,97 @@ final class Commit implements Serializable {
         this.timeStamp = timeStamp;
         this.parents = new String[]{HEAD.headCommit, parent2};
 
-        /* Inherit files in parent commit (except file staged for removal) */
-        if (HEAD.headCommit != null) {
-            files.putAll(Commit.get(HEAD.headCommit).files);
-            for (String fileName : stagingArea.removal) {
-                files.remove(fileName);
-            }
+        /* Apply staging area to tree of parent commit, so that unchanged trees are shared */
+        Map<String, String> changes = new TreeMap<>(stagingArea.addition);
+        for (String fileName : stagingArea.removal) {
+            changes.put(fileName, null);
         }
+        String parentTree = HEAD.headCommit == null ? null : Commit.get(HEAD.headCommit).getTree();
+        tree = Tree.update(parentTree, changes, GITLET_DIR.getPath());
 
-        /* Update new file in staging area */
-        for (String fileName : stagingArea.addition.keySet()) {
-            files.put(fileName, stagingArea.addition.get(fileName));
-        }
+        id = saveObject(this, GITLET_DIR.getPath()); // Save commit
 
         /* Add to git tree */
         if (parents[0] != null) {
-            gitTree.leafs.remove(parents[0]);
+            gitTree.remove(parents[0]);
         } else if (parents[1] != null) {
-            gitTree.leafs.remove(parents[1]);
+            gitTree.remove(parents[1]);
         }
-        gitTree.leafs.add(getHash(this));
+        gitTree.add(id);
+    }
+
+    /** Create a commit with given tree, without saving it. */
+    Commit(String message, Date timeStamp, String[] parents, String tree) {
+        this.message = message;
+        this.timeStamp = timeStamp;
+        this.parents = parents;
+        this.tree = tree;
+    }
 
-        saveObject(this, GITLET_DIR.getPath()); // Save commit
+    /** Return commit stored as contents. */
+    static Commit parse(byte[] contents) {
+        Encoding.Reader in = new Encoding.Reader(contents, TYPE);
+        Date timeStamp = new Date(in.readVarint());
+        String message = in.readString();
+        String[] parents = new String[]{in.readOptionalHash(), in.readOptionalHash()};
+        return new Commit(message, timeStamp, parents, in.readHash());
     }
 
     @Override
-    public String toString() {
-        Locale loc = new Locale("en", "US");
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("E MMM dd HH:mm:ss yyyy Z", loc);
+    public byte[] toContents() {
+        return new Encoding.Writer(TYPE)
+                .writeVarint(timeStamp.getTime())
+                .writeString(message)
+                .writeOptionalHash(parents[0])
+                .writeOptionalHash(parents[1])
+                .writeHash(getTree())
+                .toContents();
+    }
 
-        String commit = "commit " + getHash(this) + "\n";
-        String date = "Date: " + simpleDateFormat.format(timeStamp) + "\n";
+    /** Return map of file name to SHA-1 of all files in the commit. Trees are only loaded when needed. */
+    Map<String, String> files() {
+        if (fileMap == null) {
+            fileMap = files != null ? files : Tree.files(tree, GITLET_DIR.getPath());
+        }
+        return fileMap;
+    }
+
+    /** Return SHA-1 of the root tree (commits of old repositories get a tree built from their files). */
+    String getTree() {
+        if (tree != null) {
+            return tree;
+        } else if (builtTree == null) {
+            builtTree = Tree.update(null, files, GITLET_DIR.getPath());
+        }
+        return builtTree;
+    }
+
+    @Override
+    public String toString() {
+        String commit = "commit " + id + "\n";
+        String date = "Date: " + DATE_FORMAT.format(timeStamp.toInstant().atZone(ZoneId.systemDefault())) + "\n";
 
         return "===\n" + commit + date + message + "\n";
     }
 
     /** Search commit with given ID in file system (support abbreviate search). */
     public static Commit get(String ID) {
-        File file = abbreviateSearch(ID, GITLET_DIR.getPath());
-        if (file == null) {
-            message("No commit with that id exists.");
-            System.exit(0);
+        String hash = ID != null && ID.length() == UID_LENGTH ? ID : abbreviateSearch(ID, GITLET_DIR.getPath());
+        Commit commit = hash == null ? null : ObjectCache.load(hash, Commit.class,
+                (h) -> load(h, GITLET_DIR.getPath()), (c) -> 256 + ObjectCache.weightOf(c.files));
+        if (commit == null) {
+            throw error("No commit with that id exists.");
         }
-        return readObject(file, Commit.class);
+        return commit;
     }
 
-    /** Modify commits to contain all ancestor commitIDs of given commit, including itself. */
-    static void getParents(Commit commit, Set<String> commitIDs) {
-        if (commit == null || commitIDs.contains(getHash(commit))) {
-            return;
-        }
-
-        commitIDs.add(getHash(commit));
-        for (String parent : commit.parents) {
-            if (parent != null) {
-                getParents(Commit.get(parent), commitIDs);
-            }
+    /** Return commit with given SHA-1 (or abbreviate SHA-1) in OBJECTS_DIR (local or remote), or return null if not find. */
+    static Commit load(String hash, String gitletDir) {
+        String fullHash = abbreviateSearch(hash, gitletDir);
+        Commit commit = fullHash == null ? null : loadObject(fullHash, gitletDir, Commit.class);
+        if (commit != null) {
+            commit.id = fullHash;
         }
+        return commit;
     }
 }
@@ -0,0 +1,271 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Utils.*;
+import static gitlet.FileSystem.*;
+
+/**
+ * A compact table of all commits, inspired by git's commit-graph file, so that ancestry
+ * queries do not need to deserialize Commit objects.
+ *
+ * Commits are appended in the order they are made, so parents always come before children.
+ * Each entry holds SHA-1, positions of parents (-1 if none), time stamp and generation number
+ * (1 for the initial commit, otherwise 1 + max generation of parents).
+ */
+class CommitGraph {
+    /** Name of the commit-graph file in GITLET_DIR. */
+    static final String FILE_NAME = "commit-graph";
+    /** Magic number of commit-graph file ("CGPH"). */
+    private static final int MAGIC = 0x43475048;
+    /** Version of commit-graph format. */
+    private static final int VERSION = 1;
+    /** Length of header: magic, version. */
+    private static final int HEADER_LENGTH = 8;
+    /** Length of an entry: SHA-1, 2 parents, time stamp, generation. */
+    private static final int ENTRY_LENGTH = UID_LENGTH / 2 + 4 + 4 + 8 + 4;
+    /** Position of absent parent. */
+    static final int NONE = -1;
+
+    /** Commit-graphs opened in this process, keyed by gitlet directory (local or remote). */
+    private static final Map<String, CommitGraph> graphs = new HashMap<>();
+
+    /** Gitlet directory (local or remote). */
+    private final String gitletDir;
+    /** The commit-graph file. */
+    private final File file;
+    /** SHA-1 of commits in order. */
+    private final List<String> ids = new ArrayList<>();
+    /** Map SHA-1 to position. */
+    private final Map<String, Integer> positions = new HashMap<>();
+    /** First parents. */
+    private int[] parents1 = new int[16];
+    /** Second parents (of merge commits). */
+    private int[] parents2 = new int[16];
+    /** Time stamps in milliseconds. */
+    private long[] timeStamps = new long[16];
+    /** Generation numbers. */
+    private int[] generations = new int[16];
+    /** Number of entries in the commit-graph file. */
+    private int saved = 0;
+
+    private CommitGraph(String gitletDir) {
+        this.gitletDir = gitletDir;
+        this.file = join(gitletDir, FILE_NAME);
+        if (file.exists()) {
+            load();
+        }
+    }
+
+    /** Return commit-graph of the gitlet directory (local or remote). */
+    static CommitGraph get(String gitletDir) {
+        return graphs.computeIfAbsent(gitletDir, CommitGraph::new);
+    }
+
+    /** Forget commit-graph opened for the gitlet directory, so that it will be loaded again. */
+    static void invalidate(String gitletDir) {
+        graphs.remove(gitletDir);
+    }
+
+    /** Return number of commits. */
+    int size() {
+        return ids.size();
+    }
+
+    /** Return SHA-1 of commit at position. */
+    String id(int position) {
+        return ids.get(position);
+    }
+
+    /** Return SHA-1 of all commits in the order they are made. */
+    List<String> ids() {
+        return Collections.unmodifiableList(ids);
+    }
+
+    /** Return position of first parent, or NONE. */
+    int parent1(int position) {
+        return parents1[position];
+    }
+
+    /** Return position of second parent, or NONE. */
+    int parent2(int position) {
+        return parents2[position];
+    }
+
+    /** Return time stamp in milliseconds. */
+    long timeStamp(int position) {
+        return timeStamps[position];
+    }
+
+    /** Return generation number. */
+    int generation(int position) {
+        return generations[position];
+    }
+
+    /** Return whether commit with given SHA-1 is in the graph. */
+    boolean contains(String id) {
+        return positions.containsKey(id);
+    }
+
+    /**
+     * Return position of commit with given SHA-1. Commits made before the commit-graph
+     * existed are added with their ancestors from the object store.
+     */
+    int position(String id) {
+        Integer position = positions.get(id);
+        if (position != null) {
+            return position;
+        }
+
+        /* Add missing ancestors first (iterative post-order, since history can be long) */
+        Deque<String> stack = new ArrayDeque<>();
+        Map<String, Commit> loaded = new HashMap<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            String cur = stack.peek();
+            if (positions.containsKey(cur)) {
+                stack.pop();
+                continue;
+            }
+            Commit commit = loaded.computeIfAbsent(cur, (hash) -> loadObject(hash, gitletDir, Commit.class));
+            if (commit == null) {
+                throw error("No commit with id %s.", cur);
+            }
+            boolean ready = true;
+            for (String parent : commit.parents) {
+                if (parent != null && !positions.containsKey(parent)) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                add(cur, commit);
+            }
+        }
+        return positions.get(id);
+    }
+
+    /**
+     * Append commit with given SHA-1, whose parents are already in the graph. It is saved when the
+     * command commits (see save).
+     */
+    void add(String id, Commit commit) {
+        if (positions.containsKey(id)) {
+            return;
+        }
+        int parent1 = commit.parents[0] == null ? NONE : position(commit.parents[0]);
+        int parent2 = commit.parents[1] == null ? NONE : position(commit.parents[1]);
+        int generation = 1;
+        for (int parent : new int[]{parent1, parent2}) {
+            if (parent != NONE) {
+                generation = Math.max(generation, generations[parent] + 1);
+            }
+        }
+        append(id, parent1, parent2, commit.timeStamp.getTime(), generation);
+    }
+
+    /**
+     * Append commits added by the current command to the commit-graph file of the gitlet directory,
+     * if it is opened and locked for writing (otherwise they are only in memory, since other readers
+     * may share the repository). Called by Journal after the commit point, so that commits of a
+     * command which fails are not saved; those of a command which crashes before this are added
+     * again from the git tree when needed.
+     */
+    static void save(String gitletDir) {
+        CommitGraph graph = graphs.get(gitletDir);
+        if (graph != null && graph.saved < graph.size() && Lock.isExclusive(gitletDir)) {
+            graph.save();
+        }
+    }
+
+    /** Write entries not saved yet after the saved ones, replacing a partial entry left by a crash. */
+    private void save() {
+        boolean exists = file.exists();
+        ByteBuffer entries = ByteBuffer.allocate((exists ? 0 : HEADER_LENGTH) + (ids.size() - saved) * ENTRY_LENGTH);
+        if (!exists) {
+            entries.putInt(MAGIC).putInt(VERSION);
+        }
+        for (int position = saved; position < ids.size(); position += 1) {
+            entries.put(toBytes(ids.get(position))).putInt(parents1[position]).putInt(parents2[position])
+                    .putLong(timeStamps[position]).putInt(generations[position]);
+        }
+        entries.flip();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long offset = exists ? HEADER_LENGTH + (long) saved * ENTRY_LENGTH : 0;
+            channel.truncate(offset);
+            while (entries.hasRemaining()) {
+                offset += channel.write(entries, offset);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        saved = ids.size();
+    }
+
+    /** Return SHA-1 of the best common ancestor (split point) of two commits. */
+    String mergeBase(String id1, String id2) {
+        final int fromFirst = 1;
+        final int fromSecond = 2;
+        int position1 = position(id1);
+        int position2 = position(id2);
+        int[] flags = new int[size()];
+
+        /* Visit by generation (then time stamp) from high to low, so that descendants are visited first */
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> generations[a] != generations[b]
+                ? Integer.compare(generations[b], generations[a]) : Long.compare(timeStamps[b], timeStamps[a]));
+        flags[position1] |= fromFirst;
+        flags[position2] |= fromSecond;
+        queue.add(position1);
+        queue.add(position2);
+
+        while (!queue.isEmpty()) {
+            int cur = queue.poll();
+            if (flags[cur] == (fromFirst | fromSecond)) {
+                return ids.get(cur); // First common ancestor has the highest generation
+            }
+            for (int parent : new int[]{parents1[cur], parents2[cur]}) {
+                if (parent != NONE && (flags[parent] | flags[cur]) != flags[parent]) {
+                    flags[parent] |= flags[cur];
+                    queue.add(parent);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Read the commit-graph file. */
+    private void load() {
+        ByteBuffer buffer = ByteBuffer.wrap(readContents(file));
+        if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw error("Corrupted commit-graph.");
+        }
+
+        byte[] id = new byte[UID_LENGTH / 2];
+        while (buffer.remaining() >= ENTRY_LENGTH) {
+            buffer.get(id);
+            append(toHex(id), buffer.getInt(), buffer.getInt(), buffer.getLong(), buffer.getInt());
+        }
+        saved = ids.size();
+    }
+
+    private void append(String id, int parent1, int parent2, long timeStamp, int generation) {
+        int position = ids.size();
+        if (position == parents1.length) {
+            parents1 = Arrays.copyOf(parents1, position * 2);
+            parents2 = Arrays.copyOf(parents2, position * 2);
+            timeStamps = Arrays.copyOf(timeStamps, position * 2);
+            generations = Arrays.copyOf(generations, position * 2);
+        }
+        ids.add(id);
+        positions.put(id, position);
+        parents1[position] = parent1;
+        parents2[position] = parent2;
+        timeStamps[position] = timeStamp;
+        generations[position] = generation;
+    }
+}
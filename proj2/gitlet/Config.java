@@ -0,0 +1,71 @@
+package gitlet;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Properties;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * Settings of the repository, read from .gitlet/config as "key=value" lines (a properties file).
+ * The file is optional, and missing keys take their default values.
+ */
+class Config {
+    /** Minimal similarity (percent) of a modified file to be detected as renamed. */
+    static final String RENAME_THRESHOLD = "renames.threshold";
+    /** Max number of file pairs compared by contents when detecting renames. */
+    static final String RENAME_LIMIT = "renames.limit";
+    /** Min size in bytes of files stored as chunks. */
+    static final String CHUNK_THRESHOLD = "blobs.chunkThreshold";
+    /** Whether status shows detected renames (off by default, as the format of status is fixed). */
+    static final String STATUS_RENAMES = "status.renames";
+    /** Whether the daemon watches CWD for status, instead of scanning it each time. */
+    static final String STATUS_WATCH = "status.watch";
+    /** Whether objects and refs are synced to disk when a command commits (on by default). */
+    static final String FSYNC = "core.fsync";
+
+    /** Settings read from the config file, or null if not read yet. */
+    private static Properties properties;
+
+    /** Return value of key as a boolean, or return defaultValue if it is not set. */
+    static boolean getBoolean(String key, boolean defaultValue) {
+        String value = load().getProperty(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    /** Return value of key as an int, or return defaultValue if it is not set. */
+    static int getInt(String key, int defaultValue) {
+        String value = load().getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException excp) {
+            throw error("Invalid config %s: %s.", key, value);
+        }
+    }
+
+    /** Forget settings, so that the config file is read again (it may be edited while the daemon is running). */
+    static synchronized void invalidate() {
+        properties = null;
+    }
+
+    /** Return settings, reading the config file when first used. */
+    private static synchronized Properties load() {
+        if (properties == null) {
+            Properties result = new Properties();
+            if (CONFIG_FILE.exists()) {
+                try (Reader reader = new FileReader(CONFIG_FILE)) {
+                    result.load(reader);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+            properties = result;
+        }
+        return properties;
+    }
+}
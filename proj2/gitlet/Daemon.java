@@ -0,0 +1,230 @@
+package gitlet;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * A long-running process serving commands of the repository over a Unix domain socket
+ * (.gitlet/daemon.sock), so that JVM startup, loaded state (HEAD, staging area, git tree)
+ * and caches are shared by commands. Commands are run one at a time.
+ *
+ * Main forwards a command to the daemon if it is running, and runs it in its own process
+ * otherwise. If files of the repository are changed by another process, the daemon drops
+ * its state and caches before the next command.
+ */
+class Daemon {
+    /** The socket of the daemon. */
+    static final File SOCKET_FILE = join(GITLET_DIR, "daemon.sock");
+
+    /** Reply chunk of stdout. */
+    private static final byte OUT = 1;
+    /** Reply chunk of stderr. */
+    private static final byte ERR = 2;
+    /** End of reply. */
+    private static final byte END = 0;
+
+    /** Whether this process is serving commands. */
+    private static boolean serving = false;
+    /** Stat of repository files when the last command ends. */
+    private static List<String> stamp;
+
+    /** Forward command to the daemon and print its reply. Return false if the daemon is not running. */
+    static boolean forward(String[] args) {
+        if (args.length == 0 || args[0].equals("init") || args.length == 1 && args[0].equals("daemon")
+                || !SOCKET_FILE.exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+        } catch (IOException excp) {
+            return false; // Socket is left by a daemon which is gone
+        }
+
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            for (byte type = in.readByte(); type != END; type = in.readByte()) {
+                byte[] chunk = new byte[in.readInt()];
+                in.readFully(chunk);
+                (type == OUT ? System.out : System.err).write(chunk);
+            }
+            System.out.flush();
+            System.err.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return true;
+    }
+
+    /** Serve commands until the daemon is stopped. */
+    static void serve() {
+        if (SOCKET_FILE.exists() && forward(new String[]{"daemon", "ping"})) {
+            throw error("A daemon is already running.");
+        }
+        SOCKET_FILE.delete(); // Left by a daemon which is gone
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+            serving = true;
+            stamp = stamp();
+            while (serving) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (IOException excp) {
+                    continue; // Client is gone, serve the next one
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            serving = false;
+            Watcher.stop();
+            SOCKET_FILE.delete();
+        }
+    }
+
+    /** Return whether this process is the daemon serving commands. */
+    static boolean isServing() {
+        return serving;
+    }
+
+    /** Stop serving after the current command. */
+    static void stop() {
+        if (!serving) {
+            throw error("No daemon is running.");
+        }
+        serving = false;
+    }
+
+    /** Run command sent by the client, with stdout and stderr sent back to it. */
+    private static void handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        if (args.length == 2 && args[0].equals("daemon") && args[1].equals("ping")) {
+            args = new String[0]; // Only to check whether the daemon is running
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream clientOut = new PrintStream(new BufferedOutputStream(new Chunks(out, OUT)));
+        PrintStream clientErr = new PrintStream(new BufferedOutputStream(new Chunks(out, ERR)));
+        System.setOut(clientOut);
+        System.setErr(clientErr);
+        try {
+            refresh();
+            if (args.length > 0) {
+                Main.run(args);
+            }
+        } catch (RuntimeException excp) {
+            System.err.println("Error: " + (excp.getMessage() == null ? excp.getClass().getName() : excp.getMessage()));
+            Journal.abort();
+            stamp = null; // State may be half changed, drop it
+        } finally {
+            clientOut.flush();
+            clientErr.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        if (stamp != null) {
+            stamp = stamp();
+        }
+        out.writeByte(END);
+        out.flush();
+    }
+
+    /**
+     * Drop state and caches if repository files are changed by another process since the last
+     * command. The config is read again for each command.
+     */
+    private static void refresh() {
+        Config.invalidate();
+        List<String> current = stamp();
+        if (current.equals(stamp)) {
+            return;
+        }
+        forgetState();
+        Index.invalidate();
+        CommitGraph.invalidate(GITLET_DIR.getPath());
+        PackFile.invalidate(GITLET_DIR.getPath());
+        PrefixIndex.invalidate(GITLET_DIR.getPath());
+        Reachability.invalidate(GITLET_DIR.getPath());
+        MessageIndex.invalidate();
+        stamp = current;
+    }
+
+    /**
+     * Return path, size and modification time of repository files which are changed by commands,
+     * including refs of branches (which other processes change, like a push into this repository).
+     */
+    private static List<String> stamp() {
+        List<String> result = new ArrayList<>();
+        List<File> files = new ArrayList<>(List.of(HEAD_FILE, STAGING_FILE, TREE_FILE, INDEX_FILE,
+            join(GITLET_DIR, CommitGraph.FILE_NAME), join(GITLET_DIR, Reachability.FILE_NAME),
+            join(GITLET_DIR, MessageIndex.FILE_NAME),
+            join(OBJECTS_DIR, PackFile.PACK_DIR_NAME)));
+        DirList.walk(REFS_DIR).iterate((name) -> files.add(join(REFS_DIR, name)));
+        for (File file : files) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                result.add(file.getPath() + ":" + attributes.size() + ":"
+                        + attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+            } catch (IOException excp) {
+                result.add(""); // Not exist
+            }
+        }
+        return result;
+    }
+
+    /** Output stream sending each write as a chunk of reply. */
+    private static class Chunks extends OutputStream {
+        private final DataOutputStream out;
+        private final byte type;
+
+        Chunks(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Delta encoding of an object against a base object, inspired by git's pack deltas.
+ *
+ * A delta starts with the lengths of base and target, followed by instructions:
+ * COPY (offset, length) copies bytes from base, INSERT (length, bytes) inserts new bytes.
+ * Numbers are written as varints (7 bits per byte, high bit means more bytes follow).
+ */
+class Delta {
+    /** Instruction inserting new bytes. */
+    private static final byte INSERT = 0;
+    /** Instruction copying bytes from base. */
+    private static final byte COPY = 1;
+    /** Length of blocks of base indexed for matching. */
+    private static final int BLOCK = 16;
+    /** Multiplier of rolling hash. */
+    private static final int PRIME = 31;
+
+    /** Return delta transforming base into target, or return null if it is not smaller than target. */
+    static byte[] create(byte[] base, byte[] target) {
+        if (base.length < BLOCK || target.length < BLOCK) {
+            return null;
+        }
+
+        /* Index blocks of base by rolling hash */
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int offset = base.length - BLOCK - (base.length % BLOCK); offset >= 0; offset -= BLOCK) {
+            blocks.put(hash(base, offset), offset); // Keep the first occurrence
+        }
+
+        int power = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            power *= PRIME;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        int insertStart = 0;
+        int i = 0;
+        int h = hash(target, 0);
+        while (i + BLOCK <= target.length) {
+            Integer offset = blocks.get(h);
+            if (offset != null && matches(base, offset, target, i, BLOCK)) {
+                /* Extend match forward, then backward into pending insertion */
+                int length = BLOCK;
+                while (offset + length < base.length && i + length < target.length
+                        && base[offset + length] == target[i + length]) {
+                    length += 1;
+                }
+                int back = 0;
+                while (back < i - insertStart && back < offset && base[offset - back - 1] == target[i - back - 1]) {
+                    back += 1;
+                }
+
+                writeInsert(out, target, insertStart, i - back);
+                out.write(COPY);
+                writeVarint(out, offset - back);
+                writeVarint(out, length + back);
+                if (out.size() >= target.length) {
+                    return null;
+                }
+
+                i += length;
+                insertStart = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    h = (h - target[i] * power) * PRIME + target[i + BLOCK];
+                }
+                i += 1;
+            }
+        }
+        writeInsert(out, target, insertStart, target.length);
+
+        if (out.size() >= target.length) {
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    /** Return target rebuilt from base and delta. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] position = new int[]{0};
+        int baseLength = readVarint(delta, position);
+        int targetLength = readVarint(delta, position);
+        if (baseLength != base.length) {
+            throw new IllegalArgumentException("delta does not match base");
+        }
+
+        byte[] target = new byte[targetLength];
+        int written = 0;
+        while (position[0] < delta.length) {
+            byte instruction = delta[position[0]];
+            position[0] += 1;
+            if (instruction == COPY) {
+                int offset = readVarint(delta, position);
+                int length = readVarint(delta, position);
+                System.arraycopy(base, offset, target, written, length);
+                written += length;
+            } else {
+                int length = readVarint(delta, position);
+                System.arraycopy(delta, position[0], target, written, length);
+                position[0] += length;
+                written += length;
+            }
+        }
+
+        if (written != targetLength) {
+            throw new IllegalArgumentException("corrupted delta");
+        }
+        return target;
+    }
+
+    /** Write instruction inserting target[start, end), if not empty. */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int start, int end) {
+        if (start >= end) {
+            return;
+        }
+        out.write(INSERT);
+        writeVarint(out, end - start);
+        out.write(target, start, end - start);
+    }
+
+    /** Return rolling hash of the block beginning at offset. */
+    private static int hash(byte[] bytes, int offset) {
+        int h = 0;
+        for (int i = offset; i < offset + BLOCK; i += 1) {
+            h = h * PRIME + bytes[i];
+        }
+        return h;
+    }
+
+    private static boolean matches(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i += 1) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Write non-negative number as varint. */
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Read varint at position[0], and move position[0] after it. */
+    static int readVarint(byte[] bytes, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position[0]];
+            position[0] += 1;
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,492 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Line diff of two files. Lines are interned to ints first, so that the algorithms only
+ * compare ints. Regions are compared by Myers' linear-space algorithm (finding the middle
+ * snake from both ends). When a region needs too many edits for that to be cheap, it is split
+ * like histogram diff instead: at the longest run of common lines among those occurring least
+ * often, so that unique lines anchor the result. Total work is bounded, so pathological inputs
+ * (like long files of few distinct lines) get a correct but larger diff instead of taking forever.
+ */
+class Diff {
+    /** Number of context lines around changes in a hunk. */
+    static final int CONTEXT = 3;
+
+    /** Lines of a file, where equal lines (of files interned together) have equal ids. */
+    static final class Lines {
+        /** Contents of the file. */
+        final byte[] bytes;
+        /** Start of each line, followed by the end of the file. */
+        final int[] starts;
+        /** Id of each line. */
+        final int[] ids;
+
+        private Lines(byte[] bytes, int[] starts, int[] ids) {
+            this.bytes = bytes;
+            this.starts = starts;
+            this.ids = ids;
+        }
+
+        /** Return number of lines. */
+        int size() {
+            return ids.length;
+        }
+
+        /** Return whether the last line ends with a newline (or there is no line). */
+        boolean endsWithNewline() {
+            return bytes.length == 0 || bytes[bytes.length - 1] == '\n';
+        }
+
+        /** Write line i (with its newline) to out. */
+        void write(int i, PrintStream out) {
+            write(i, i + 1, out);
+        }
+
+        /** Write lines [from, to) to out. */
+        void write(int from, int to, PrintStream out) {
+            out.write(bytes, starts[from], starts[to] - starts[from]);
+        }
+    }
+
+    /** A line of contents, compared by its bytes. */
+    private static final class Line {
+        private final byte[] bytes;
+        private final int start;
+        private final int end;
+        private final int hash;
+
+        Line(byte[] bytes, int start, int end) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+            int h = 1;
+            for (int i = start; i < end; i += 1) {
+                h = 31 * h + bytes[i];
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            Line other = (Line) o;
+            return hash == other.hash && Arrays.equals(bytes, start, end, other.bytes, other.start, other.end);
+        }
+    }
+
+    /** An edit replacing lines [aStart, aEnd) of a by lines [bStart, bEnd) of b. */
+    static final class Edit {
+        final int aStart;
+        final int aEnd;
+        final int bStart;
+        final int bEnd;
+
+        Edit(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /** Split contents into lines, interned together so that equal lines have equal ids. */
+    static Lines[] split(byte[]... contents) {
+        Map<Line, Integer> ids = new HashMap<>();
+        Lines[] result = new Lines[contents.length];
+        for (int c = 0; c < contents.length; c += 1) {
+            byte[] bytes = contents[c];
+            int count = 0;
+            for (byte b : bytes) {
+                if (b == '\n') {
+                    count += 1;
+                }
+            }
+            if (bytes.length > 0 && bytes[bytes.length - 1] != '\n') {
+                count += 1; // Last line without newline
+            }
+
+            int[] starts = new int[count + 1];
+            int[] lineIds = new int[count];
+            int start = 0;
+            for (int i = 0; i < count; i += 1) {
+                int end = start;
+                while (end < bytes.length && bytes[end] != '\n') {
+                    end += 1;
+                }
+                end = Math.min(end + 1, bytes.length);
+                starts[i] = start;
+                lineIds[i] = ids.computeIfAbsent(new Line(bytes, start, end), (line) -> ids.size());
+                start = end;
+            }
+            starts[count] = bytes.length;
+            result[c] = new Lines(bytes, starts, lineIds);
+        }
+        return result;
+    }
+
+    /** Return whether contents looks binary (has a NUL byte in the first 8000 bytes, like git). */
+    static boolean isBinary(byte[] contents) {
+        for (int i = 0; i < Math.min(contents.length, 8000); i += 1) {
+            if (contents[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return edits transforming line ids a into b, in order. */
+    static List<Edit> diff(int[] a, int[] b) {
+        return new Differ(a, b).run();
+    }
+
+    /** Result of a three-way merge. */
+    static final class Merged {
+        /** Merged contents, with conflict markers around overlapping changes. */
+        final byte[] contents;
+        /** Whether any change overlaps. */
+        final boolean conflict;
+
+        private Merged(byte[] contents, boolean conflict) {
+            this.contents = contents;
+            this.conflict = conflict;
+        }
+    }
+
+    /**
+     * Merge changes from base to current and from base to given, line by line like diff3.
+     * Changes touching the same (or adjacent) lines of base conflict, unless they are the same;
+     * other changes are both applied.
+     */
+    static Merged merge(byte[] base, byte[] current, byte[] given) {
+        Lines[] lines = split(base, current, given);
+        List<Edit> ours = diff(lines[0].ids, lines[1].ids);
+        List<Edit> theirs = diff(lines[0].ids, lines[2].ids);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        boolean conflict = false;
+        int i = 0; // Next line of base to write
+        int ourShift = 0; // Lines of current minus lines of base before i
+        int theirShift = 0;
+        int o = 0;
+        int t = 0;
+        while (o < ours.size() || t < theirs.size()) {
+            /* Group edits of both sides which overlap or touch in base */
+            int lo = Math.min(o < ours.size() ? ours.get(o).aStart : Integer.MAX_VALUE,
+                    t < theirs.size() ? theirs.get(t).aStart : Integer.MAX_VALUE);
+            int hi = lo;
+            int ourDelta = 0;
+            int theirDelta = 0;
+            boolean ourChange = false;
+            boolean theirChange = false;
+            while (true) {
+                if (o < ours.size() && ours.get(o).aStart <= hi) {
+                    Edit edit = ours.get(o++);
+                    hi = Math.max(hi, edit.aEnd);
+                    ourDelta += (edit.bEnd - edit.bStart) - (edit.aEnd - edit.aStart);
+                    ourChange = true;
+                } else if (t < theirs.size() && theirs.get(t).aStart <= hi) {
+                    Edit edit = theirs.get(t++);
+                    hi = Math.max(hi, edit.aEnd);
+                    theirDelta += (edit.bEnd - edit.bStart) - (edit.aEnd - edit.aStart);
+                    theirChange = true;
+                } else {
+                    break;
+                }
+            }
+
+            lines[0].write(i, lo, out);
+            int ourStart = lo + ourShift;
+            int ourEnd = hi + ourShift + ourDelta;
+            int theirStart = lo + theirShift;
+            int theirEnd = hi + theirShift + theirDelta;
+            if (!theirChange || ourChange && Arrays.equals(lines[1].ids, ourStart, ourEnd,
+                    lines[2].ids, theirStart, theirEnd)) {
+                lines[1].write(ourStart, ourEnd, out);
+            } else if (!ourChange) {
+                lines[2].write(theirStart, theirEnd, out);
+            } else {
+                out.print("<<<<<<< HEAD\n");
+                lines[1].write(ourStart, ourEnd, out);
+                out.print("=======\n");
+                lines[2].write(theirStart, theirEnd, out);
+                out.print(">>>>>>>\n");
+                conflict = true;
+            }
+            i = hi;
+            ourShift += ourDelta;
+            theirShift += theirDelta;
+        }
+        lines[0].write(i, lines[0].size(), out);
+        out.flush();
+        return new Merged(bytes.toByteArray(), conflict);
+    }
+
+    /** Computes edits of two id arrays. */
+    private static final class Differ {
+        private final int[] a;
+        private final int[] b;
+        private final List<Edit> edits = new ArrayList<>();
+        /** Regions [aLo, aHi, bLo, bHi] still to compare (a stack rather than recursion, as files can be long). */
+        private final Deque<int[]> regions = new ArrayDeque<>();
+        /** Number of steps left before remaining regions are replaced as a whole. */
+        private long budget;
+        /** Number of occurrences of each id in the region of a being split (0 outside of splitting). */
+        private final int[] counts;
+        /** First occurrence of each id in the region of a being split. */
+        private final int[] firsts;
+
+        Differ(int[] a, int[] b) {
+            this.a = a;
+            this.b = b;
+            this.budget = Math.max(1 << 20, 64L * (a.length + b.length));
+            int maxId = -1;
+            for (int id : a) {
+                maxId = Math.max(maxId, id);
+            }
+            for (int id : b) {
+                maxId = Math.max(maxId, id);
+            }
+            counts = new int[maxId + 1];
+            firsts = new int[maxId + 1];
+        }
+
+        List<Edit> run() {
+            regions.push(new int[]{0, a.length, 0, b.length});
+            while (!regions.isEmpty()) {
+                int[] region = regions.pop();
+                compare(region[0], region[1], region[2], region[3]);
+            }
+
+            /* Regions are disjoint, so sorting puts edits in order; then join adjacent ones */
+            edits.sort((x, y) -> x.aStart != y.aStart ? Integer.compare(x.aStart, y.aStart)
+                    : Integer.compare(x.bStart, y.bStart));
+            List<Edit> result = new ArrayList<>();
+            for (Edit edit : edits) {
+                Edit last = result.isEmpty() ? null : result.get(result.size() - 1);
+                if (last != null && last.aEnd == edit.aStart && last.bEnd == edit.bStart) {
+                    result.set(result.size() - 1, new Edit(last.aStart, edit.aEnd, last.bStart, edit.bEnd));
+                } else {
+                    result.add(edit);
+                }
+            }
+            return result;
+        }
+
+        private void compare(int aLo, int aHi, int bLo, int bHi) {
+            /* Skip common prefix and suffix */
+            while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                if (aLo < aHi || bLo < bHi) {
+                    edits.add(new Edit(aLo, aHi, bLo, bHi));
+                }
+                return;
+            }
+            if (budget <= 0) {
+                edits.add(new Edit(aLo, aHi, bLo, bHi)); // Too costly to find a smaller diff
+                return;
+            }
+
+            int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+            if (snake == null) {
+                splitAtRareLine(aLo, aHi, bLo, bHi);
+            } else {
+                regions.push(new int[]{snake[2], aHi, snake[3], bHi});
+                regions.push(new int[]{aLo, snake[0], bLo, snake[1]});
+            }
+        }
+
+        /**
+         * Return the middle snake [x, y, u, v] of an optimal edit path (lines [x, u) of a equal to
+         * lines [y, v) of b), or return null if the path needs too many edits to find it cheaply.
+         */
+        private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+            int n = aHi - aLo;
+            int m = bHi - bLo;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            int maxD = Math.min((n + m + 1) / 2, Math.max(64, (int) Math.sqrt(n + m)));
+            int offset = maxD + 1;
+            int[] forward = new int[2 * offset + 1]; // Furthest x on each diagonal k = x - y
+            int[] backward = new int[2 * offset + 1]; // Same, from the ends of both regions
+
+            for (int d = 0; d <= maxD; d += 1) {
+                for (int k = -d; k <= d; k += 2) {
+                    int x = k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])
+                            ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                    int y = x - k;
+                    int x0 = x;
+                    int y0 = y;
+                    while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    forward[offset + k] = x;
+                    budget -= 1 + x - x0;
+                    int kr = delta - k;
+                    if (odd && kr >= -(d - 1) && kr <= d - 1 && x + backward[offset + kr] >= n) {
+                        return new int[]{aLo + x0, bLo + y0, aLo + x, bLo + y};
+                    }
+                }
+                for (int k = -d; k <= d; k += 2) {
+                    int x = k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])
+                            ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                    int y = x - k;
+                    int x0 = x;
+                    int y0 = y;
+                    while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    backward[offset + k] = x;
+                    budget -= 1 + x - x0;
+                    int kf = delta - k;
+                    if (!odd && kf >= -d && kf <= d && x + forward[offset + kf] >= n) {
+                        return new int[]{aHi - x, bHi - y, aHi - x0, bHi - y0};
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Split region at a run of equal lines starting with a line which occurs least often in a
+         * (at its first occurrence), preferring longer runs.
+         */
+        private void splitAtRareLine(int aLo, int aHi, int bLo, int bHi) {
+            for (int i = aHi - 1; i >= aLo; i -= 1) {
+                counts[a[i]] += 1;
+                firsts[a[i]] = i;
+            }
+            budget -= aHi - aLo;
+
+            int bestCount = Integer.MAX_VALUE;
+            int bestLength = 0;
+            int aStart = -1;
+            int bStart = -1;
+            for (int j = bLo; j < bHi; j += 1) {
+                int count = counts[b[j]];
+                if (count == 0 || count > bestCount) {
+                    continue;
+                }
+                int i = firsts[b[j]];
+                if (i > aLo && j > bLo && a[i - 1] == b[j - 1]) {
+                    continue; // Inside a run already measured
+                }
+                int length = 1;
+                while (i + length < aHi && j + length < bHi && a[i + length] == b[j + length]) {
+                    length += 1;
+                }
+                budget -= length;
+                if (count < bestCount || length > bestLength) {
+                    bestCount = count;
+                    bestLength = length;
+                    aStart = i;
+                    bStart = j;
+                }
+            }
+            for (int i = aLo; i < aHi; i += 1) {
+                counts[a[i]] = 0;
+            }
+            if (aStart < 0) {
+                edits.add(new Edit(aLo, aHi, bLo, bHi)); // Nothing in common
+                return;
+            }
+
+            int aEnd = aStart + bestLength;
+            int bEnd = bStart + bestLength;
+            regions.push(new int[]{aEnd, aHi, bEnd, bHi});
+            regions.push(new int[]{aLo, aStart, bLo, bStart});
+        }
+    }
+
+    /**
+     * Print differences between two versions of a file in unified format, one hunk at a time.
+     * Null contents means the file does not exist in that version.
+     */
+    static void printUnified(String fileName, byte[] before, byte[] after, PrintStream out) {
+        out.println("diff --git a/" + fileName + " b/" + fileName);
+        if (before == null) {
+            out.println("new file");
+        } else if (after == null) {
+            out.println("deleted file");
+        }
+        byte[] a = before == null ? new byte[0] : before;
+        byte[] b = after == null ? new byte[0] : after;
+        if (isBinary(a) || isBinary(b)) {
+            out.println("Binary files " + (before == null ? "/dev/null" : "a/" + fileName) + " and "
+                    + (after == null ? "/dev/null" : "b/" + fileName) + " differ");
+            return;
+        }
+        out.println("--- " + (before == null ? "/dev/null" : "a/" + fileName));
+        out.println("+++ " + (after == null ? "/dev/null" : "b/" + fileName));
+
+        Lines[] lines = split(a, b);
+        List<Edit> edits = diff(lines[0].ids, lines[1].ids);
+        for (int first = 0; first < edits.size(); ) {
+            /* A hunk holds edits whose contexts touch */
+            int last = first;
+            while (last + 1 < edits.size() && edits.get(last + 1).aStart - edits.get(last).aEnd <= 2 * CONTEXT) {
+                last += 1;
+            }
+            printHunk(lines[0], lines[1], edits.subList(first, last + 1), out);
+            first = last + 1;
+        }
+    }
+
+    private static void printHunk(Lines a, Lines b, List<Edit> edits, PrintStream out) {
+        Edit firstEdit = edits.get(0);
+        Edit lastEdit = edits.get(edits.size() - 1);
+        int aStart = Math.max(0, firstEdit.aStart - CONTEXT);
+        int bStart = firstEdit.bStart - (firstEdit.aStart - aStart);
+        int aEnd = Math.min(a.size(), lastEdit.aEnd + CONTEXT);
+        int bEnd = lastEdit.bEnd + (aEnd - lastEdit.aEnd);
+        out.println("@@ -" + range(aStart, aEnd) + " +" + range(bStart, bEnd) + " @@");
+
+        int i = aStart;
+        for (Edit edit : edits) {
+            for (; i < edit.aStart; i += 1) {
+                printLine(' ', a, i, out);
+            }
+            for (int j = edit.aStart; j < edit.aEnd; j += 1) {
+                printLine('-', a, j, out);
+            }
+            for (int j = edit.bStart; j < edit.bEnd; j += 1) {
+                printLine('+', b, j, out);
+            }
+            i = edit.aEnd;
+        }
+        for (; i < aEnd; i += 1) {
+            printLine(' ', a, i, out);
+        }
+    }
+
+    /** Return "start,count" of lines [start, end) counted from 1, like diff -u. */
+    private static String range(int start, int end) {
+        int count = end - start;
+        return (count == 0 ? start : start + 1) + (count == 1 ? "" : "," + count);
+    }
+
+    private static void printLine(char prefix, Lines lines, int i, PrintStream out) {
+        out.write(prefix);
+        lines.write(i, out);
+        if (i == lines.size() - 1 && !lines.endsWithNewline()) {
+            out.print("\n\\ No newline at end of file\n");
+        }
+    }
+}
@@ -2,6 +2,9 @@ package gitlet;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static gitlet.Utils.*;
 
@@ -29,6 +32,37 @@ public class DirList {
         }
     }
 
+    private DirList(File path, String[] names) {
+        this.path = path;
+        this.names = names;
+    }
+
+    /**
+     * Create a new DirList that iterates through plain files in the directory and its subdirectories
+     * (except .gitlet), named by their paths relative to the directory with "/".
+     */
+    static DirList walk(File path) {
+        List<String> names = new ArrayList<>();
+        walk(path, "", names);
+        return new DirList(path, names.toArray(new String[0]));
+    }
+
+    private static void walk(File dir, String prefix, List<String> names) {
+        String[] children = dir.list();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (String child : children) {
+            File file = join(dir, child);
+            if (file.isFile()) {
+                names.add(prefix + child);
+            } else if (file.isDirectory() && !(prefix.isEmpty() && child.equals(".gitlet"))) {
+                walk(file, prefix + child + "/", names);
+            }
+        }
+    }
+
     /** A runner that can iterate through and do some actions. */
     interface Runner {
         /** The action that runner will do when iterating. */
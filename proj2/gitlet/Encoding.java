@@ -0,0 +1,125 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static gitlet.FileSystem.*;
+import static gitlet.Utils.*;
+
+/**
+ * Compact binary encoding of gitlet objects. Like blobs and trees, an object is stored as
+ * "TYPE LENGTH\0" followed by its body, and its SHA-1 is computed over this canonical form.
+ *
+ * A body starts with the version of its format, followed by fields: numbers and lengths are
+ * varints (7 bits per byte, high bit means more bytes follow), strings are a length followed
+ * by UTF-8 bytes, and SHA-1 are 20 bytes.
+ */
+final class Encoding {
+    /** Version of object formats. */
+    static final int VERSION = 1;
+
+    /** Writes the body of an object. */
+    static class Writer {
+        private final String type;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        /** Start an object of given type. */
+        Writer(String type) {
+            this.type = type;
+            writeVarint(VERSION);
+        }
+
+        /** Write non-negative number as varint. */
+        Writer writeVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                body.write((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            body.write((int) value);
+            return this;
+        }
+
+        Writer writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            body.writeBytes(bytes);
+            return this;
+        }
+
+        Writer writeHash(String hash) {
+            body.writeBytes(toBytes(hash));
+            return this;
+        }
+
+        /** Write SHA-1 which may be null. */
+        Writer writeOptionalHash(String hash) {
+            body.write(hash == null ? 0 : 1);
+            return hash == null ? this : writeHash(hash);
+        }
+
+        /** Return "TYPE LENGTH\0" followed by the body. */
+        byte[] toContents() {
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            contents.writeBytes((type + " " + body.size() + "\0").getBytes(StandardCharsets.UTF_8));
+            contents.writeBytes(body.toByteArray());
+            return contents.toByteArray();
+        }
+    }
+
+    /** Reads the body of an object. */
+    static class Reader {
+        private final byte[] contents;
+        private int position;
+
+        /** Start reading contents of an object, which must be of given type. */
+        Reader(byte[] contents, String type) {
+            this.contents = contents;
+            if (!type.equals(typeOf(contents))) {
+                throw error("Object is not a %s.", type);
+            }
+            while (contents[position] != 0) {
+                position += 1; // Skip header
+            }
+            position += 1;
+            if (readVarint() != VERSION) {
+                throw error("Unknown version of %s.", type);
+            }
+        }
+
+        long readVarint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = contents[position];
+                position += 1;
+                value |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        int readCount() {
+            return (int) readVarint();
+        }
+
+        String readString() {
+            int length = readCount();
+            String value = new String(contents, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        String readHash() {
+            byte[] hash = new byte[UID_LENGTH / 2];
+            System.arraycopy(contents, position, hash, 0, hash.length);
+            position += hash.length;
+            return toHex(hash);
+        }
+
+        String readOptionalHash() {
+            position += 1;
+            return contents[position - 1] == 0 ? null : readHash();
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package gitlet;
 
-import java.io.File;
-import java.io.Serializable;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import static gitlet.Repository.*;
 import static gitlet.Utils.*;
@@ -16,96 +19,524 @@ import static gitlet.Status.*;
 class FileSystem {
     /* Hash */
 
-    /** Return SHA-1 code of the serializable item. */
-    static <T extends Serializable> String getHash(T object) {
-        return sha1(serialize(object));
+    /** Return SHA-1 of the object, computed over its canonical encoding. */
+    static String getHash(GitletObject object) {
+        return sha1(object.toContents());
     }
 
-    /** Return pointer of file with given SHA-1 (or abbreviate SHA-1), or return null if not find. */
-    static File abbreviateSearch(String hash, String gitletDir) {
-        if (hash == null || hash.length() > UID_LENGTH) {
+    /**
+     * Return SHA-1 of object with given SHA-1 (or abbreviate SHA-1) in loose objects or packs, or return
+     * null if not find. Exit if the abbreviate SHA-1 is ambiguous.
+     */
+    static String abbreviateSearch(String hash, String gitletDir) {
+        if (hash == null || hash.length() < ABBREVIATE_LENGTH || hash.length() > UID_LENGTH) {
             return null;
         }
 
-        File objectDir = join(String.join(File.separator, gitletDir, "objects"));
-        File dir = join(objectDir, hash.substring(0, ABBREVIATE_LENGTH));
-        if (!dir.exists()) {
-            return null;
+        /* Complete SHA-1 */
+        if (hash.length() == UID_LENGTH) {
+            return containsObject(hash, gitletDir) ? hash : null;
+        }
+
+        Set<String> candidates = PrefixIndex.get(gitletDir).search(hash, 2, PackFile.list(gitletDir));
+        if (candidates.size() > 1) {
+            throw error("Ambiguous id %s.", hash);
         }
+        return candidates.isEmpty() ? null : candidates.iterator().next();
+    }
 
-        DirList candidates = new DirList(dir, (_dir, name) -> name.startsWith(hash.substring(ABBREVIATE_LENGTH)));
-        if (candidates.names.length != 1) {
+    /** Return whether object with given SHA-1 is in loose objects or packs. */
+    static boolean containsObject(String hash, String gitletDir) {
+        if (looseObjectFile(hash, gitletDir).exists()) {
+            return true;
+        }
+        for (PackFile pack : PackFile.list(gitletDir)) {
+            if (pack.contains(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return whether contents of an object is a serialized Java object, rather than "TYPE LENGTH\0..." like a blob. */
+    static boolean isSerialized(byte[] contents) {
+        return contents.length >= 2 && (contents[0] & 0xff) == 0xac && (contents[1] & 0xff) == 0xed;
+    }
+
+    /** Return type of object ("blob", "tree", "commit"...) from its contents, or return null if it is a serialized Java object. */
+    static String typeOf(byte[] contents) {
+        if (isSerialized(contents)) {
             return null;
         }
+        int space = 0;
+        while (contents[space] != ' ') {
+            space += 1;
+        }
+        return new String(contents, 0, space, StandardCharsets.UTF_8);
+    }
+
+    /** Return pointer of loose object file with given SHA-1. */
+    static File looseObjectFile(String hash, String gitletDir) {
+        return join(gitletDir, "objects", hash.substring(0, ABBREVIATE_LENGTH), hash.substring(ABBREVIATE_LENGTH));
+    }
+
+    /** Return SHA-1 of all loose objects. */
+    static List<String> looseObjects(String gitletDir) {
+        List<String> hashes = new ArrayList<>();
+        File[] dirs = join(gitletDir, "objects").listFiles((dir, name) -> name.length() == ABBREVIATE_LENGTH);
+        if (dirs == null) {
+            return hashes;
+        }
+        for (File dir : dirs) {
+            new DirList(dir).iterate((name) -> hashes.add(dir.getName() + name));
+        }
+        return hashes;
+    }
+
+    /** Convert SHA-1 to bytes. */
+    static byte[] toBytes(String hash) {
+        byte[] bytes = new byte[hash.length() / 2];
+        for (int i = 0; i < bytes.length; i += 1) {
+            bytes[i] = (byte) Integer.parseInt(hash.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
 
-        return join(dir, candidates.names[0]);
+    /** Convert bytes to SHA-1. */
+    static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
     }
 
     /* File I/O */
 
-    /** Save Objects (Blob, Commit, Head...) in OBJECTS_DIR (local or remote) with abbreviate folder. */
-    static <T extends Serializable> void saveObject(T object, String gitletDir) {
-        String hash = getHash(object);
-        File objectDir = new File(String.join(File.separator, gitletDir, "objects"));
-        File dir = join(objectDir, hash.substring(0, ABBREVIATE_LENGTH));
-        dir.mkdir();
+    /** Save Objects (Commit, Head...) in OBJECTS_DIR (local or remote) with abbreviate folder, return its SHA-1. */
+    static String saveObject(GitletObject object, String gitletDir) {
+        return saveContents(object.toContents(), gitletDir);
+    }
+
+    /** Save object with given contents ("TYPE LENGTH\0...") compressed in OBJECTS_DIR (local or remote), return its SHA-1. */
+    static String saveContents(byte[] contents, String gitletDir) {
+        return saveContents(sha1(contents), contents, gitletDir);
+    }
+
+    /**
+     * Save contents compressed as the object with given SHA-1 in OBJECTS_DIR (local or remote), and
+     * return the SHA-1. Only chunked blobs are saved under a SHA-1 other than that of their contents.
+     */
+    static String saveContents(String hash, byte[] contents, String gitletDir) {
+        if (containsObject(hash, gitletDir)) {
+            return hash;
+        }
+
+        File obj = looseObjectFile(hash, gitletDir);
+        obj.getParentFile().mkdir();
+        try {
+            File temp = File.createTempFile("tmp_obj_", null, join(gitletDir, "objects"));
+            try (OutputStream out = new DeflaterOutputStream(new FileOutputStream(temp))) {
+                out.write(contents);
+            }
+            Files.move(temp.toPath(), obj.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.written(gitletDir, obj);
+        PrefixIndex.added(hash, gitletDir);
+        return hash;
+    }
+
+    /** Return object with given SHA-1 (or abbreviate SHA-1) in loose objects or packs, or return null if not find. */
+    static <T> T loadObject(String hash, String gitletDir, Class<T> expectedClass) {
+        String fullHash = abbreviateSearch(hash, gitletDir);
+        if (fullHash == null) {
+            return null;
+        }
+        byte[] contents = readObjectContents(fullHash, gitletDir);
+        Object object = isSerialized(contents) ? deserialize(contents, Serializable.class) : parseObject(contents);
+        if (!expectedClass.isInstance(object)) {
+            throw error("Object %s is not a %s.", fullHash, expectedClass.getSimpleName());
+        }
+        return expectedClass.cast(object);
+    }
+
+    /** Return object decoded from its contents ("TYPE LENGTH\0..."). */
+    static Object parseObject(byte[] contents) {
+        String type = typeOf(contents);
+        return switch (type) {
+            case Commit.TYPE -> Commit.parse(contents);
+            case Tree.TYPE -> Tree.parse(contents);
+            case Head.TYPE -> Head.parse(contents);
+            case StagingArea.TYPE -> StagingArea.parse(contents);
+            case GitTree.TYPE -> GitTree.parse(contents);
+            default -> throw error("Unknown type of object: %s.", type);
+        };
+    }
+
+    /**
+     * Return a stream of contents of object with given SHA-1 in loose objects or packs, or return null
+     * if not find. Objects are inflated as they are read, except serialized objects of old repositories.
+     */
+    static InputStream openObject(String hash, String gitletDir) {
+        File file = looseObjectFile(hash, gitletDir);
+        if (file.exists()) {
+            try {
+                InputStream in = new BufferedInputStream(new FileInputStream(file));
+                in.mark(2);
+                boolean isSerialized = in.read() == 0xac && in.read() == 0xed;
+                in.reset();
+                return isSerialized ? in : new InflaterInputStream(in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        for (PackFile pack : PackFile.list(gitletDir)) {
+            InputStream in = pack.open(hash);
+            if (in != null) {
+                return in;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return contents of object with given SHA-1 in loose objects or packs, or return null if not find.
+     * Loose objects are uncompressed if they are compressed with zlib.
+     */
+    static byte[] readObjectContents(String hash, String gitletDir) {
+        File file = looseObjectFile(hash, gitletDir);
+        if (file.exists()) {
+            byte[] contents = readContents(file);
+            if (isSerialized(contents)) {
+                return contents;
+            }
+            try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(contents))) {
+                return in.readAllBytes();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        for (PackFile pack : PackFile.list(gitletDir)) {
+            byte[] contents = pack.read(hash);
+            if (contents != null) {
+                return contents;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fold loose immutable objects (Blob, Tree, Commit) and existing packs into a single new pack,
+     * then remove the packed loose objects and old packs. Mutable refs stay loose, and the
+     * ones no longer referenced are deleted.
+     */
+    static void packObjects(String gitletDir) {
+        packObjects(gitletDir, Set.of());
+    }
+
+    /** Same as packObjects, but objects with SHA-1 in dropped are removed rather than packed. */
+    static void packObjects(String gitletDir, Set<String> dropped) {
+        /* Refs in use */
+        Set<String> liveRefs = new TreeSet<>();
+        List<File> refFiles = branchRefFiles(gitletDir);
+        for (String refFile : new String[]{"HEAD", "staging", "git_tree"}) {
+            refFiles.add(join(gitletDir, refFile));
+        }
+        for (File refFile : refFiles) {
+            if (refFile.exists()) {
+                liveRefs.add(readContentsAsString(refFile)); // Old refs, in use until the command commits
+            }
+            String hash = Journal.read(refFile);
+            if (hash != null) {
+                liveRefs.add(hash);
+            }
+        }
+
+        List<PackFile> oldPacks = PackFile.list(gitletDir);
+        List<String> looseHashes = new ArrayList<>();
+        for (String hash : looseObjects(gitletDir)) {
+            File file = looseObjectFile(hash, gitletDir);
+            if (dropped.contains(hash)) {
+                file.delete();
+                file.getParentFile().delete();
+            } else if (isImmutable(readObjectContents(hash, gitletDir))) {
+                looseHashes.add(hash);
+            } else if (!liveRefs.contains(hash)) {
+                file.delete(); // Stale ref
+                file.getParentFile().delete();
+            }
+        }
+        if (looseHashes.isEmpty() && oldPacks.size() <= 1 && dropped.isEmpty()) {
+            return; // Nothing to pack
+        }
+
+        /* Blobs are added last, grouped by file name, so that versions of a file are stored as deltas */
+        PackFile.Writer writer = new PackFile.Writer(gitletDir);
+        Map<String, String> names = new HashMap<>(); // Map SHA-1 of blob to its file name in commits
+        Map<String, Integer> sizes = new HashMap<>();
+        List<String> hashes = new ArrayList<>(looseHashes);
+        for (PackFile pack : oldPacks) {
+            hashes.addAll(pack.hashes());
+        }
+        hashes.removeAll(dropped);
+        for (String hash : hashes) {
+            if (writer.contains(hash) || sizes.containsKey(hash)) {
+                continue;
+            }
+            byte[] contents = readObjectContents(hash, gitletDir);
+            String type = typeOf(contents);
+            Serializable object = type == null ? deserialize(contents, Serializable.class) : null;
+            if (Tree.TYPE.equals(type)) {
+                writer.add(hash, contents);
+                Tree tree = Tree.parse(contents);
+                for (Map.Entry<String, String> entry : tree.entries.entrySet()) {
+                    names.putIfAbsent(entry.getValue(), entry.getKey());
+                }
+            } else if ("blob".equals(type) || object instanceof Blob) {
+                sizes.put(hash, contents.length);
+                if (object != null) {
+                    names.put(hash, ((Blob) object).name);
+                }
+            } else {
+                writer.add(hash, contents);
+                if (object != null && ((Commit) object).files != null) {
+                    for (Map.Entry<String, String> file : ((Commit) object).files.entrySet()) {
+                        names.putIfAbsent(file.getValue(), file.getKey()); // Commit of old repositories
+                    }
+                }
+            }
+        }
+        Map<String, List<String>> blobsByName = new TreeMap<>();
+        for (String hash : sizes.keySet()) {
+            blobsByName.computeIfAbsent(names.getOrDefault(hash, ""), (name) -> new ArrayList<>()).add(hash);
+        }
+
+        /* Like git, try the PackFile.DELTA_WINDOW previous versions (from larger to smaller) as bases */
+        for (List<String> blobs : blobsByName.values()) {
+            blobs.sort((a, b) -> sizes.get(b) - sizes.get(a));
+            LinkedHashMap<String, byte[]> window = new LinkedHashMap<>();
+            for (String hash : blobs) {
+                byte[] contents = readObjectContents(hash, gitletDir);
+                writer.add(hash, contents, window);
+
+                window.put(hash, contents);
+                if (window.size() > PackFile.DELTA_WINDOW) {
+                    window.remove(window.keySet().iterator().next());
+                }
+            }
+        }
+        List<File> newPacks = writer.finish();
+        Journal.syncObjects(gitletDir); // The new pack is on disk before objects are removed
+
+        /* Remove packed objects */
+        for (PackFile pack : oldPacks) {
+            if (!newPacks.contains(pack.packFile)) {
+                pack.indexFile.delete(); // Delete index first, so that pack is invisible
+                pack.packFile.delete();
+            }
+        }
+        for (String hash : looseHashes) {
+            File file = looseObjectFile(hash, gitletDir);
+            file.delete();
+            file.getParentFile().delete(); // Delete folder if it is empty
+        }
+        PackFile.invalidate(gitletDir);
+        PrefixIndex.invalidate(gitletDir);
+    }
 
-        File obj = join(dir, hash);
-        if (!obj.exists()) {
-            writeObject(join(dir, hash.substring(ABBREVIATE_LENGTH)), object);
+    /** Return whether contents is an immutable object (Blob and its chunks, Tree, Commit), rather than a mutable ref. */
+    private static boolean isImmutable(byte[] contents) {
+        String type = typeOf(contents);
+        if (type == null) {
+            Serializable object = deserialize(contents, Serializable.class);
+            return object instanceof Blob || object instanceof Commit;
+        }
+        return type.equals("blob") || type.equals(Blob.CHUNKED_TYPE) || type.equals(Blob.CHUNK_TYPE)
+                || type.equals(Tree.TYPE) || type.equals(Commit.TYPE);
+    }
+
+    /**
+     * Save object of a mutable ref (Head, StagingArea, GitTree) in OBJECTS_DIR (only local), and point
+     * the ref file to it when the command commits (see Journal), after which the object the ref pointed
+     * to is deleted if no other ref uses it. Return SHA-1.
+     */
+    static String updateRef(File refFile, GitletObject object) {
+        String oldHash = Journal.read(refFile);
+        String hash = saveObject(object, GITLET_DIR.getPath());
+        if (!hash.equals(oldHash)) {
+            Journal.write(GITLET_DIR.getPath(), refFile, hash);
+            if (oldHash != null) {
+                Journal.replaced(GITLET_DIR.getPath(), oldHash);
+            }
         }
+        return hash;
     }
 
-    /** Delete old object in OBJECTS_DIR (only local) for mutable refs (Head, StagingArea, GitTree...). */
-    static <T extends Serializable> void deleteOldRef(File refFile) {
-        if (!refFile.exists()) {
+    /** Delete ref file when the command commits, then delete the object it pointed to if no other ref uses it. */
+    static void removeRef(File refFile) {
+        String hash = Journal.read(refFile);
+        Journal.delete(GITLET_DIR.getPath(), refFile);
+        Journal.replaced(GITLET_DIR.getPath(), hash);
+    }
+
+    /** Delete object of a mutable ref with given SHA-1 (only local) if no ref uses it. */
+    static void deleteUnusedRef(String hash) {
+        if (hash == null) {
             return;
         }
+        ObjectCache.remove(hash); // The object may be changed in memory
+        for (File refFile : new File[]{HEAD_FILE, STAGING_FILE, TREE_FILE}) {
+            if (refFile.exists() && readContentsAsString(refFile).equals(hash)) {
+                return;
+            }
+        }
+        for (File refFile : branchRefFiles(GITLET_DIR.getPath())) {
+            if (readContentsAsString(refFile).equals(hash)) {
+                return;
+            }
+        }
 
-        String hash = readContentsAsString(refFile);
-        File dir = join(OBJECTS_DIR, hash.substring(0, ABBREVIATE_LENGTH));
-        DirList dirList = new DirList(dir);
-        if (dirList.names.length == 1) {
-            dir.delete(); // Delete folder directly
-        } else {
-            join(dir, hash.substring(ABBREVIATE_LENGTH)).delete(); // Delete head file
+        PrefixIndex.removed(hash, GITLET_DIR.getPath());
+        File file = looseObjectFile(hash, GITLET_DIR.getPath());
+        file.delete();
+        file.getParentFile().delete(); // Delete folder if it is empty
+    }
+
+    /**
+     * Return ref files of branches in the gitlet directory (local or remote), including branches fetched
+     * from remotes, and those created or deleted by the current command.
+     */
+    static List<File> branchRefFiles(String gitletDir) {
+        Set<File> result = new LinkedHashSet<>();
+        File headsDir = join(gitletDir, "refs", "heads");
+        new DirList(headsDir).iterate((name) -> result.add(join(headsDir, name)));
+        File[] remoteDirs = join(gitletDir, "refs", "remotes").listFiles(File::isDirectory);
+        for (File remoteDir : remoteDirs == null ? new File[0] : remoteDirs) {
+            new DirList(remoteDir).iterate((name) -> result.add(join(remoteDir, name)));
+        }
+        File refsDir = join(gitletDir, "refs");
+        for (File refFile : Journal.updated(gitletDir)) {
+            if (!refFile.toPath().startsWith(refsDir.toPath())) {
+                continue;
+            } else if (Journal.read(refFile) == null) {
+                result.remove(refFile);
+            } else {
+                result.add(refFile);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Write contents to a temporary file, then rename it to the file atomically, so that it is never partially written. */
+    static void writeAtomically(File file, String contents) {
+        File temp = new File(file.getPath() + ".lock");
+        writeContents(temp, contents);
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
     /** Replace file with fileName in CWD by given SHA-1 of blob. */
     static void replaceFileInCWD(String fileName, String hash) {
         if (hash == null) {
-            message("File does not exist in that commit.");
-            System.exit(0);
+            throw error("File does not exist in that commit.");
         }
-        byte[] contents = Blob.get(hash).contents;
-        if (contents == null) {
-            writeContents(join(CWD, fileName), "");
-        } else {
-            writeContents(join(CWD, fileName), contents);
+        Blob.copyTo(hash, createInCWD(fileName));
+        Index.get().update(fileName, hash);
+    }
+
+    /** Return file with given path in CWD, with its parent directories created. */
+    static File createInCWD(String fileName) {
+        File file = join(CWD, fileName);
+        file.getParentFile().mkdirs();
+        return file;
+    }
+
+    /** Delete file with given path in CWD, and its parent directories which are left empty. */
+    static void deleteInCWD(String fileName) {
+        File file = join(CWD, fileName);
+        if (!file.isFile() || !file.delete()) {
+            return;
+        }
+        File dir = file.getParentFile();
+        while (!dir.equals(CWD) && dir.delete()) { // Only empty directories are deleted
+            dir = dir.getParentFile();
         }
     }
 
-    /** Check out all files tracked by given commit, and remove tracked files not presenting in that commit. */
+    /**
+     * Check out all files tracked by given commit, and remove tracked files not presenting in that commit.
+     * Only files which differ between the current commit and that commit (by a diff of their trees),
+     * files staged for addition, and files changed in CWD (told by the index without reading them)
+     * are touched, so the cost is in the size of the change rather than the size of the commit.
+     */
     static void replaceAllInCWD(String commitID) {
         Commit commit = Commit.get(commitID);
+        Map<String, String> files = commit.files();
 
-        /* Check */
-        new DirList(CWD).iterate((fileName) -> {
-            String hash = getHash(new Blob(join(CWD, fileName)));
-            if (isUntracked.judge(fileName) && (!hash.equals(commit.files.get(fileName)))) {
-                message("There is an untracked file in the way; delete it, or add and commit it first.");
-                System.exit(0);
+        /* Map path to SHA-1 of blob to write, or to null for files to delete */
+        Map<String, String> changes = Tree.diff(Commit.get(HEAD.headCommit).getTree(), commit.getTree(),
+                GITLET_DIR.getPath());
+        for (String fileName : stagingArea.addition.keySet()) {
+            changes.putIfAbsent(fileName, files.get(fileName));
+        }
+        List<String> unchanged = new ArrayList<>();
+        for (String fileName : files.keySet()) {
+            if (!changes.containsKey(fileName)) {
+                unchanged.add(fileName);
             }
-        });
+        }
+        Map<String, String> hashes = Index.get().hash(unchanged);
+        for (String fileName : unchanged) {
+            if (!files.get(fileName).equals(hashes.get(fileName))) {
+                changes.put(fileName, files.get(fileName)); // Modified or deleted in CWD
+            }
+        }
+
+        /* Check untracked files which would be overwritten (hashed in parallel) */
+        List<String> untracked = new ArrayList<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() != null && isUntracked.judge(change.getKey())) {
+                untracked.add(change.getKey());
+            }
+        }
+        hashes = Index.get().hash(untracked);
+        for (String fileName : untracked) {
+            if (!hashes.get(fileName).equals(changes.get(fileName))) {
+                throw error("There is an untracked file in the way; delete it, or add and commit it first.");
+            }
+        }
+
+        /* Check blobs, so that CWD is untouched if any of them is missing */
+        List<Map.Entry<String, String>> writes = new ArrayList<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                continue;
+            }
+            if (!containsObject(change.getValue(), GITLET_DIR.getPath())) {
+                throw error("File does not exist.");
+            }
+            writes.add(change);
+        }
+
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                deleteInCWD(change.getKey());
+            }
+        }
 
-        new DirList(CWD).iterate((fileName) -> restrictedDelete(fileName)); // Delete all file in CWD
-        for (String fileName : commit.files.keySet()) {
-            replaceFileInCWD(fileName, commit.files.get(fileName));
+        /* Write files in parallel */
+        writes.parallelStream().forEach((file) -> Blob.copyTo(file.getValue(), createInCWD(file.getKey())));
+        for (Map.Entry<String, String> file : writes) {
+            Index.get().update(file.getKey(), file.getValue());
         }
 
-        /* Clean staging area */
-        stagingArea.addition = new TreeMap<>();
-        stagingArea.removal = new TreeSet<>();
+        stagingArea.clear();
     }
 }
@@ -8,13 +8,52 @@ import static gitlet.Repository.*;
 import static gitlet.FileSystem.*;
 import static gitlet.Utils.*;
 
-class GitTree implements Serializable {
+class GitTree implements Serializable, GitletObject {
+    /** Same as serialized git trees of old repositories. */
+    private static final long serialVersionUID = 8805529498747194425L;
+    /** Type of git tree objects. */
+    static final String TYPE = "gittree";
+
     /** Contain all leaf nodes. */
     Set<String> leafs = new TreeSet<>();
+    /** Whether changed since loaded or saved. Change leafs through methods below, so that it is kept. */
+    transient boolean dirty;
+
+    /** Add a leaf commit. */
+    void add(String commitID) {
+        if (leafs.add(commitID)) {
+            dirty = true;
+        }
+    }
+
+    /** Remove a commit which is no longer a leaf. */
+    void remove(String commitID) {
+        if (leafs.remove(commitID)) {
+            dirty = true;
+        }
+    }
 
     void save() {
-        deleteOldRef(TREE_FILE);
-        saveObject(this, GITLET_DIR.getPath());
-        writeContents(TREE_FILE, getHash(this));
+        updateRef(TREE_FILE, this);
+        dirty = false;
+    }
+
+    /** Return git tree stored as contents. */
+    static GitTree parse(byte[] contents) {
+        Encoding.Reader in = new Encoding.Reader(contents, TYPE);
+        GitTree gitTree = new GitTree();
+        for (int i = in.readCount(); i > 0; i -= 1) {
+            gitTree.leafs.add(in.readHash());
+        }
+        return gitTree;
+    }
+
+    @Override
+    public byte[] toContents() {
+        Encoding.Writer out = new Encoding.Writer(TYPE).writeVarint(leafs.size());
+        for (String leaf : leafs) {
+            out.writeHash(leaf);
+        }
+        return out.toContents();
     }
 }
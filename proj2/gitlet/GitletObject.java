@@ -0,0 +1,7 @@
+package gitlet;
+
+/** An object stored in OBJECTS_DIR in its compact binary encoding (see Encoding). */
+interface GitletObject {
+    /** Return "TYPE LENGTH\0" followed by the encoded object, over which its SHA-1 is computed. */
+    byte[] toContents();
+}
@@ -1,6 +1,8 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.*;
 
@@ -8,11 +10,18 @@ import static gitlet.Repository.*;
 import static gitlet.FileSystem.*;
 import static gitlet.Utils.*;
 
-class Head implements Serializable {
+class Head implements Serializable, GitletObject {
+    /** Same as serialized heads of old repositories. */
+    private static final long serialVersionUID = -1683468629436180607L;
+    /** Type of head objects. */
+    static final String TYPE = "head";
+
     /** Branch name. */
     String name;
     /** Reference to head commit of the branch. */
     String headCommit;
+    /** Whether head commit changed since loaded or saved as HEAD. */
+    transient boolean dirty;
 
     /** Create a new branch head on the commit, and save in HEADS_DIR. */
     Head(String name) {
@@ -21,32 +30,59 @@ class Head implements Serializable {
 
     /** Update head commit and also update file in file system. */
     void updateHeadCommit(String headCommit) {
-        deleteOldRef(join(HEADS_DIR, name));
-
-        /* Update */
         this.headCommit = headCommit;
-        saveObject(this, GITLET_DIR.getPath()); // Save Head in OBJECTS_DIR
+        dirty = true;
+        updateRef(refFile(name), this); // Save Head in OBJECTS_DIR and its reference in HEADS_DIR
+    }
+
+    /** Return ref file of branch with given name. Branches fetched from remotes ("REMOTE/BRANCH") are in REMOTES_DIR. */
+    static File refFile(String name) {
+        return name.contains("/") ? join(REMOTES_DIR, name) : join(HEADS_DIR, name);
+    }
+
+    /** Return head stored as contents. */
+    static Head parse(byte[] contents) {
+        Encoding.Reader in = new Encoding.Reader(contents, TYPE);
+        Head head = new Head(in.readString());
+        head.headCommit = in.readOptionalHash();
+        return head;
+    }
 
-        writeContents(join(HEADS_DIR, name), getHash(this)); // Save reference of Head in HEADS_DIR
+    @Override
+    public byte[] toContents() {
+        return new Encoding.Writer(TYPE).writeString(name).writeOptionalHash(headCommit).toContents();
     }
 
-    /** Return head with given name. */
+    /** Return head with given name, as a copy which can be changed without changing the cached one. */
     static Head get(String headName) {
-        File headFile = join(HEADS_DIR, headName);
-        if (!headFile.exists()) {
+        String refHash = Journal.read(refFile(headName));
+        if (refHash == null) {
+            return null;
+        }
+        Head cached = ObjectCache.load(refHash, Head.class,
+                (hash) -> loadObject(hash, GITLET_DIR.getPath(), Head.class), (head) -> 128);
+        if (cached == null) {
             return null;
         }
-        return readObject(abbreviateSearch(readContentsAsString(headFile), GITLET_DIR.getPath()), Head.class);
+        Head head = new Head(cached.name);
+        head.headCommit = cached.headCommit;
+        return head;
     }
 
-    /** display each commit backwards along the commit tree, following the first parent commit links. */
-    void log() {
-        String ID = headCommit;
-        while (ID != null) {
-            Commit commit = Commit.get(ID);
-            System.out.println(commit);
-            ID = commit.parents[0];
+    /**
+     * Display each commit backwards along the commit tree, following the first parent commit links.
+     * Stop after limit commits, or at the first commit older than since (milliseconds).
+     */
+    void log(int limit, long since) {
+        CommitGraph graph = CommitGraph.get(GITLET_DIR.getPath());
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+        int count = 0;
+        for (int cur = graph.position(headCommit); cur != CommitGraph.NONE && count < limit
+                && graph.timeStamp(cur) >= since; cur = graph.parent1(cur)) {
+            out.println(Commit.get(graph.id(cur)));
+            count += 1;
         }
+        out.flush();
     }
 
     /**
@@ -55,43 +91,16 @@ class Head implements Serializable {
      */
     static void makeCommit(String message, Date date, String parent2) {
         Commit newCommit = new Commit(message, date, parent2);
+        String commitID = newCommit.id;
+        CommitGraph.get(GITLET_DIR.getPath()).add(commitID, newCommit);
+        MessageIndex.update();
 
-        /* Clean staging area */
-        stagingArea.addition = new TreeMap<>();
-        stagingArea.removal = new TreeSet<>();
-
-        HEAD.updateHeadCommit(getHash(newCommit));
+        stagingArea.clear();
+        HEAD.updateHeadCommit(commitID);
     }
 
     /** Find split point with given branch. */
     static String getSplitPoint(String givenBranchName) {
-        /* Get all ancestor of HEAD */
-        Set<String> commits = new TreeSet<>();
-        Commit.getParents(Commit.get(HEAD.headCommit), commits);
-
-        /* BFS */
-        Commit commit = Commit.get(Head.get(givenBranchName).headCommit);
-        Commit splitPoint = null;
-        LinkedList<Commit> queue = new LinkedList<>();
-        queue.add(commit);
-        while (!queue.isEmpty()) {
-            Commit cur = queue.removeFirst();
-            if (commits.contains(getHash(cur))) {
-                if (splitPoint == null || splitPoint.timeStamp.compareTo(cur.timeStamp) < 0) {
-                    splitPoint = cur;
-                }
-            }
-
-            for (String parent : cur.parents) {
-                if (parent != null) {
-                    Commit parentCommit = Commit.get(parent);
-                    if (!queue.contains(parentCommit)) {
-                        queue.addLast(parentCommit);
-                    }
-                }
-            }
-        }
-
-        return getHash(splitPoint);
+        return CommitGraph.get(GITLET_DIR.getPath()).mergeBase(HEAD.headCommit, Head.get(givenBranchName).headCommit);
     }
 }
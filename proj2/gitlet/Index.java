@@ -0,0 +1,226 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+import static gitlet.FileSystem.*;
+
+/**
+ * Cache of SHA-1 of files in CWD, keyed by their stat data (size, mtime, inode), inspired by
+ * git's index. A file is hashed again only when its stat data changed.
+ *
+ * Like git, an entry whose mtime is not older than the index file itself is "racily clean":
+ * the file may have been modified again within the same mtime tick after it was hashed, so
+ * it is always hashed again (and the index is rewritten, which eventually makes it clean).
+ */
+class Index {
+    /** Magic number of index file ("GIDX"). */
+    private static final int MAGIC = 0x47494458;
+    /** Version of index format. */
+    private static final int VERSION = 1;
+
+    /** Index of CWD, loaded when first used. */
+    private static Index index;
+
+    /** Stat data and SHA-1 of a file. */
+    private static class Entry {
+        /** Size in bytes. */
+        long size;
+        /** Modification time in nanoseconds. */
+        long mtime;
+        /** Identifies the file on disk (inode on Unix). */
+        String fileKey;
+        /** SHA-1 of the file as a blob. */
+        String hash;
+        /** Whether the file is hashed by this process (so that it is not racy). */
+        boolean fresh;
+
+        /** Return stat data of the file, or return null if it does not exist. */
+        static Entry stat(File file) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                if (!attributes.isRegularFile()) {
+                    return null;
+                }
+                Entry entry = new Entry();
+                entry.size = attributes.size();
+                entry.mtime = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+                entry.fileKey = String.valueOf(attributes.fileKey());
+                return entry;
+            } catch (IOException excp) {
+                return null;
+            }
+        }
+
+        boolean sameStat(Entry other) {
+            return size == other.size && mtime == other.mtime && fileKey.equals(other.fileKey);
+        }
+    }
+
+    /** Map file name to entry. */
+    private final Map<String, Entry> entries = new TreeMap<>();
+    /** Modification time of index file in nanoseconds when it is loaded. */
+    private long indexTime = Long.MIN_VALUE;
+    /** Whether entries changed since loaded. */
+    private boolean dirty = false;
+
+    /** Return index of CWD. */
+    static Index get() {
+        if (index == null) {
+            index = new Index();
+            if (INDEX_FILE.exists()) {
+                index.load();
+            }
+        }
+        return index;
+    }
+
+    /** Forget index of CWD, so that it will be loaded again (when other processes may have changed it). */
+    static void invalidate() {
+        index = null;
+    }
+
+    /** Save index of CWD if it is used and changed. */
+    static void saveIfChanged() {
+        if (index != null && index.dirty) {
+            index.save();
+        }
+    }
+
+    /** Return SHA-1 of file in CWD as a blob (hash it only if stat data changed), or return null if not exist. */
+    String hash(String fileName) {
+        return hash(List.of(fileName)).get(fileName);
+    }
+
+    /**
+     * Return map of file name to SHA-1 of files in CWD as blobs (or null if not exist). Files whose
+     * stat data changed are hashed in parallel.
+     */
+    Map<String, String> hash(Collection<String> fileNames) {
+        Map<String, String> result = new TreeMap<>();
+        Map<String, Entry> changed = new TreeMap<>();
+        for (String fileName : fileNames) {
+            Entry stat = Entry.stat(join(CWD, fileName));
+            Entry entry = entries.get(fileName);
+            if (stat == null) {
+                if (entries.remove(fileName) != null) {
+                    dirty = true;
+                }
+                result.put(fileName, null);
+            } else if (entry != null && entry.sameStat(stat) && (entry.fresh || entry.mtime < indexTime)) {
+                result.put(fileName, entry.hash);
+            } else {
+                changed.put(fileName, stat);
+            }
+        }
+
+        changed.entrySet().parallelStream().forEach((file) ->
+                file.getValue().hash = Blob.hash(join(CWD, file.getKey())));
+        record(changed, result);
+        return result;
+    }
+
+    /** Save file in CWD as a blob, and return its SHA-1. */
+    String add(String fileName) {
+        return add(List.of(fileName)).get(fileName);
+    }
+
+    /** Save files in CWD as blobs in parallel, and return map of file name to SHA-1. */
+    Map<String, String> add(Collection<String> fileNames) {
+        Map<String, Entry> stats = new TreeMap<>();
+        for (String fileName : fileNames) {
+            stats.put(fileName, Entry.stat(join(CWD, fileName))); // Stat before reading
+        }
+
+        stats.entrySet().parallelStream().forEach((file) ->
+                file.getValue().hash = Blob.save(join(CWD, file.getKey())));
+        Map<String, String> result = new TreeMap<>();
+        record(stats, result);
+        return result;
+    }
+
+    /** Put entries just hashed into the index, and their SHA-1 into result. */
+    private void record(Map<String, Entry> hashed, Map<String, String> result) {
+        for (Map.Entry<String, Entry> file : hashed.entrySet()) {
+            file.getValue().fresh = true;
+            entries.put(file.getKey(), file.getValue());
+            result.put(file.getKey(), file.getValue().hash);
+            dirty = true;
+        }
+    }
+
+    /** Record that file in CWD is just written with contents of blob with given SHA-1. */
+    void update(String fileName, String hash) {
+        Entry stat = Entry.stat(join(CWD, fileName));
+        if (stat == null) {
+            return;
+        }
+        stat.hash = hash;
+        stat.fresh = true;
+        entries.put(fileName, stat);
+        dirty = true;
+    }
+
+    private void load() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(INDEX_FILE)))) {
+            indexTime = Files.getLastModifiedTime(INDEX_FILE.toPath()).to(TimeUnit.NANOSECONDS);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return; // Unknown format, start from scratch
+            }
+            int size = in.readInt();
+            byte[] hash = new byte[UID_LENGTH / 2];
+            for (int i = 0; i < size; i += 1) {
+                String fileName = in.readUTF();
+                Entry entry = new Entry();
+                entry.size = in.readLong();
+                entry.mtime = in.readLong();
+                entry.fileKey = in.readUTF();
+                in.readFully(hash);
+                entry.hash = toHex(hash);
+                entries.put(fileName, entry);
+            }
+        } catch (IOException excp) {
+            entries.clear(); // Index is only a cache
+        }
+    }
+
+    private void save() {
+        File temp;
+        try {
+            temp = File.createTempFile("index", ".lock", GITLET_DIR); // Readers sharing the repository may save at once
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().mtime);
+                out.writeUTF(entry.getValue().fileKey);
+                out.write(toBytes(entry.getValue().hash));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        try {
+            Files.move(temp.toPath(), INDEX_FILE.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            indexTime = Files.getLastModifiedTime(INDEX_FILE.toPath()).to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (Entry entry : entries.values()) {
+            entry.fresh = false; // Judged by time of index file from now on (in a long-running daemon)
+        }
+        dirty = false;
+    }
+}
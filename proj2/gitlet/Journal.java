@@ -0,0 +1,239 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.*;
+import static gitlet.FileSystem.*;
+
+/**
+ * Write-ahead journal of ref updates (HEAD, staging, git tree and branches), so that the
+ * updates of a command take effect all together or not at all.
+ *
+ * Updates are kept in memory while the command runs (reads of refs see them), and committed
+ * when it ends: objects written by the command and the journal file listing the new refs are
+ * synced together, then the journal file is renamed into place, which is the commit point.
+ * The refs are then written, synced, and the journal removed. A journal left by a crash is
+ * replayed before the next command, and a command which fails leaves the refs untouched.
+ * Objects are never changed in place, so the old refs stay valid until the commit point.
+ * Commits added to the commit-graph are saved after the commit point too.
+ */
+class Journal {
+    /** Name of the journal file in GITLET_DIR. */
+    static final String FILE_NAME = "journal";
+    /** First line of journal file. */
+    private static final String HEADER = "gitlet journal 1";
+    /** Last line of journal file, so that a partially written journal is ignored. */
+    private static final String TRAILER = "end";
+
+    /** Journals of gitlet directories (local or remote) updated by the current command. */
+    private static final Map<String, Journal> journals = new LinkedHashMap<>();
+
+    /** Gitlet directory (local or remote). */
+    private final String gitletDir;
+    /** Map ref file to its new contents (SHA-1), or to null if it is deleted, in order of updates. */
+    private final Map<File, String> refs = new LinkedHashMap<>();
+    /** Object files written by the command (also from parallel streams). */
+    private final Set<File> objects = ConcurrentHashMap.newKeySet();
+    /** SHA-1 of ref objects replaced by updates, deleted after the commit point if no ref uses them. */
+    private final List<String> replaced = new ArrayList<>();
+
+    private Journal(String gitletDir) {
+        this.gitletDir = gitletDir;
+    }
+
+    private static synchronized Journal of(String gitletDir) {
+        return journals.computeIfAbsent(gitletDir, Journal::new);
+    }
+
+    /** Point ref file in the gitlet directory to contents when the command commits. */
+    static void write(String gitletDir, File refFile, String contents) {
+        of(gitletDir).refs.put(refFile, contents);
+    }
+
+    /** Delete ref file in the gitlet directory when the command commits. */
+    static void delete(String gitletDir, File refFile) {
+        of(gitletDir).refs.put(refFile, null);
+    }
+
+    /** Delete ref object with given SHA-1 (only local) after the command commits, if no ref uses it. */
+    static void replaced(String gitletDir, String hash) {
+        of(gitletDir).replaced.add(hash);
+    }
+
+    /** Record that an object file (loose object or pack) is written, so that it is synced before the commit point. */
+    static void written(String gitletDir, File file) {
+        of(gitletDir).objects.add(file);
+    }
+
+    /** Return contents of ref file as updated by the current command, or return null if it does not exist. */
+    static String read(File refFile) {
+        for (Journal journal : journals.values()) {
+            if (journal.refs.containsKey(refFile)) {
+                return journal.refs.get(refFile);
+            }
+        }
+        return refFile.exists() ? readContentsAsString(refFile) : null;
+    }
+
+    /** Return ref files in the gitlet directory updated (to be created or deleted) by the current command. */
+    static Set<File> updated(String gitletDir) {
+        Journal journal = journals.get(gitletDir);
+        return journal == null ? Set.of() : journal.refs.keySet();
+    }
+
+    /** Commit the updates of the current command. */
+    static void commit() {
+        try {
+            for (Journal journal : journals.values()) {
+                journal.commitOne();
+            }
+        } finally {
+            journals.clear();
+        }
+    }
+
+    /** Drop the updates of the current command (objects written are left for gc). */
+    static void abort() {
+        journals.clear();
+    }
+
+    /** Sync objects written to the gitlet directory so far, before they are relied on (like loose objects deleted by gc). */
+    static void syncObjects(String gitletDir) {
+        Journal journal = journals.get(gitletDir);
+        if (journal != null && fsync()) {
+            sync(journal.objects);
+            journal.objects.clear();
+        }
+    }
+
+    /** Replay the journal left in the gitlet directory by a command which crashed after its commit point. */
+    static void recover(String gitletDir) {
+        File file = join(gitletDir, FILE_NAME);
+        if (!file.exists()) {
+            return;
+        }
+        Lock.acquire(gitletDir, true); // Upgraded if shared, since refs are written
+        if (!file.exists()) {
+            return; // Recovered by another process meanwhile
+        }
+        String[] lines = readContentsAsString(file).split("\n");
+        Map<File, String> refs = new LinkedHashMap<>();
+        if (lines.length >= 2 && lines[0].equals(HEADER) && lines[lines.length - 1].equals(TRAILER)) {
+            for (int i = 1; i < lines.length - 1; i += 1) {
+                int tab = lines[i].indexOf('\t');
+                refs.put(join(gitletDir, lines[i].substring(0, tab)),
+                        tab == lines[i].length() - 1 ? null : lines[i].substring(tab + 1));
+            }
+        }
+        apply(refs);
+        if (fsync()) {
+            sync(filesAndDirectories(refs.keySet()));
+        }
+        file.delete();
+    }
+
+    private void commitOne() {
+        boolean fsync = fsync();
+        if (refs.isEmpty()) {
+            if (fsync) {
+                sync(objects);
+            }
+            CommitGraph.save(gitletDir);
+            return;
+        }
+
+        /* Write the journal, and sync it together with the objects */
+        File file = join(gitletDir, FILE_NAME);
+        File temp = join(gitletDir, FILE_NAME + ".lock");
+        StringBuilder contents = new StringBuilder(HEADER).append('\n');
+        for (Map.Entry<File, String> ref : refs.entrySet()) {
+            String path = new File(gitletDir).toPath().relativize(ref.getKey().toPath()).toString();
+            contents.append(path.replace(File.separatorChar, '/')).append('\t')
+                    .append(ref.getValue() == null ? "" : ref.getValue()).append('\n');
+        }
+        contents.append(TRAILER).append('\n');
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(contents.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (fsync) {
+            Set<File> files = filesAndDirectories(objects);
+            files.add(temp);
+            sync(files);
+        }
+
+        /* Commit point */
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (fsync) {
+            sync(List.of(new File(gitletDir)));
+        }
+
+        apply(refs);
+        if (fsync) {
+            sync(filesAndDirectories(refs.keySet()));
+        }
+        file.delete();
+        CommitGraph.save(gitletDir);
+        for (String hash : replaced) {
+            deleteUnusedRef(hash);
+        }
+    }
+
+    /** Write ref files (creating their directories), and delete those mapped to null (and their directories if empty). */
+    private static void apply(Map<File, String> refs) {
+        for (Map.Entry<File, String> ref : refs.entrySet()) {
+            File refFile = ref.getKey();
+            if (ref.getValue() == null) {
+                refFile.delete();
+                refFile.getParentFile().delete(); // Delete folder of a remote if it is empty
+            } else {
+                refFile.getParentFile().mkdirs();
+                writeAtomically(refFile, ref.getValue());
+            }
+        }
+    }
+
+    /** Return files which exist, and the directories containing the files. */
+    private static Set<File> filesAndDirectories(Collection<File> files) {
+        Set<File> result = new HashSet<>();
+        for (File file : files) {
+            if (file.exists()) {
+                result.add(file);
+            }
+            if (file.getParentFile().exists()) {
+                result.add(file.getParentFile());
+            }
+        }
+        return result;
+    }
+
+    /** Sync files and directories to disk in parallel, as a single barrier. */
+    private static void sync(Collection<File> files) {
+        files.parallelStream().forEach((file) -> {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException excp) {
+                // Directories cannot be synced on some platforms, and a file may be deleted (by gc)
+            }
+        });
+    }
+
+    private static boolean fsync() {
+        return Config.getBoolean(Config.FSYNC, true);
+    }
+}
@@ -0,0 +1,94 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/**
+ * Lock of a gitlet directory (local or remote) held by a command, so that processes can share
+ * a repository: commands which only read it (log, status...) hold a shared lock, and the others
+ * an exclusive one, on the lock file. Objects are immutable and written by atomic rename, so
+ * reading them needs no lock beyond that; only gc removes objects, and it is exclusive.
+ *
+ * Caches written by readers are either replaced by atomic rename (index) or kept in memory
+ * until a writer saves them (commit-graph).
+ */
+class Lock {
+    /** Name of the lock file in GITLET_DIR. */
+    static final String FILE_NAME = "lock";
+    /** Max time to wait for the lock of a remote, in milliseconds (two processes may push to each other). */
+    static final long REMOTE_TIMEOUT = 10000;
+
+    /** Locks held by this process, keyed by gitlet directory. */
+    private static final Map<String, FileLock> locks = new HashMap<>();
+
+    /**
+     * Lock the gitlet directory, shared or exclusive, waiting for other processes. A shared lock
+     * held already is upgraded, which is not atomic, so upgrade before reading the repository.
+     */
+    static void acquire(String gitletDir, boolean exclusive) {
+        acquire(gitletDir, exclusive, -1);
+    }
+
+    /** Same as acquire, but give up after timeout milliseconds (wait forever if negative). */
+    static void acquire(String gitletDir, boolean exclusive, long timeout) {
+        FileLock held = locks.get(gitletDir);
+        if (held != null && (!held.isShared() || !exclusive)) {
+            return;
+        }
+        release(gitletDir);
+
+        try {
+            FileChannel channel = FileChannel.open(join(gitletDir, FILE_NAME).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock lock;
+            if (timeout < 0) {
+                lock = channel.lock(0, Long.MAX_VALUE, !exclusive);
+            } else {
+                long deadline = System.currentTimeMillis() + timeout;
+                lock = channel.tryLock(0, Long.MAX_VALUE, !exclusive);
+                while (lock == null && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                    lock = channel.tryLock(0, Long.MAX_VALUE, !exclusive);
+                }
+                if (lock == null) {
+                    channel.close();
+                    throw error("Repository %s is locked by another process.", gitletDir);
+                }
+            }
+            locks.put(gitletDir, lock);
+        } catch (IOException | InterruptedException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return whether this process holds the exclusive lock of the gitlet directory. */
+    static boolean isExclusive(String gitletDir) {
+        FileLock lock = locks.get(gitletDir);
+        return lock != null && !lock.isShared();
+    }
+
+    /** Release the lock of the gitlet directory, if held. */
+    static void release(String gitletDir) {
+        FileLock lock = locks.remove(gitletDir);
+        if (lock != null) {
+            try {
+                lock.channel().close(); // Releases the lock
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Release all locks held by this process (when a command ends). */
+    static void releaseAll() {
+        for (String gitletDir : locks.keySet().toArray(new String[0])) {
+            release(gitletDir);
+        }
+    }
+}
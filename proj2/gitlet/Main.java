@@ -1,30 +1,58 @@
 package gitlet;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Set;
 
 import static gitlet.Repository.*;
 import static gitlet.Utils.*;
-import static gitlet.FileSystem.*;
 
 public class Main {
     public static void main(String[] args) {
+        if (!Daemon.forward(args)) {
+            run(args);
+        }
+    }
+
+    /** Commands which only read the repository, so that they may run at the same time as each other. */
+    private static final Set<String> READ_ONLY_COMMANDS = Set.of("log", "global-log", "status", "diff");
+
+    /** Run command in this process, and print the message if it fails. */
+    static void run(String[] args) {
+        try {
+            execute(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            Journal.abort();
+            forgetState(); // Nothing is saved
+        } finally {
+            Lock.releaseAll();
+        }
+    }
+
+    private static void execute(String[] args) {
         if (args.length == 0) {
-            message("Please enter a command.");
-            System.exit(0);
+            throw error("Please enter a command.");
         }
 
         String firstArg = args[0];
         if (!args[0].equals("init")) {
             /* Check Environment */
             if (!GITLET_DIR.exists()) {
-                message("Not in an initialized Gitlet directory.");
-                System.exit(0);
+                throw error("Not in an initialized Gitlet directory.");
             }
 
-            /* Load info */
-            HEAD = readObject(abbreviateSearch(readContentsAsString(HEAD_FILE), GITLET_DIR.getPath()), Head.class);
-            stagingArea = readObject(abbreviateSearch(readContentsAsString(STAGING_FILE), GITLET_DIR.getPath()), StagingArea.class);
-            gitTree = readObject(abbreviateSearch(readContentsAsString(TREE_FILE), GITLET_DIR.getPath()), GitTree.class);
+            if (firstArg.equals("daemon")) { // The daemon locks and loads state for each command it serves
+                doDaemonCommand(args);
+                return;
+            }
+            Lock.acquire(GITLET_DIR.getPath(), !READ_ONLY_COMMANDS.contains(firstArg));
+            Journal.recover(GITLET_DIR.getPath()); // Finish updates of a command which crashed
+            loadState();
         }
 
         switch (firstArg) {
@@ -33,8 +61,10 @@ public class Main {
                 doInitCommand();
             }
             case "add" -> {
-                validArgs(args, 2);
-                doAddCommand(args[1]);
+                if (args.length < 2) {
+                    throw error("Incorrect operands.");
+                }
+                doAddCommand(Arrays.copyOfRange(args, 1, args.length));
             }
             case "commit" -> {
                 validArgs(args, 2);
@@ -45,16 +75,21 @@ public class Main {
                 doRemoveCommand(args[1]);
             }
             case "log" -> {
-                validArgs(args, 1);
-                doLogCommand();
+                long[] options = logOptions(args);
+                doLogCommand((int) options[0], options[1]);
             }
             case "global-log" -> {
-                validArgs(args, 1);
-                doGlobalLogCommand();
+                long[] options = logOptions(args);
+                doGlobalLogCommand((int) options[0], options[1]);
             }
             case "find" -> {
-                validArgs(args, 2);
-                doFindCommand(args[1]);
+                /* find [--token | --substring] message */
+                if (args.length == 2) {
+                    doFindCommand(null, args[1]);
+                } else {
+                    validArgs(args, 3);
+                    doFindCommand(args[1], args[2]);
+                }
             }
             case "status" -> {
                 validArgs(args, 1);
@@ -75,8 +110,7 @@ public class Main {
                             checkoutCommit(args[1], args[3]);
                             break;
                         }
-                    message("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
             }
             case "branch" -> {
@@ -95,22 +129,97 @@ public class Main {
                 validArgs(args, 2);
                 doMergeCommand(args[1]);
             }
+            case "add-remote" -> {
+                validArgs(args, 3);
+                doAddRemoteCommand(args[1], args[2]);
+            }
+            case "rm-remote" -> {
+                validArgs(args, 2);
+                doRemoveRemoteCommand(args[1]);
+            }
+            case "fetch" -> {
+                validArgs(args, 3);
+                doFetchCommand(args[1], args[2]);
+            }
+            case "push" -> {
+                validArgs(args, 3);
+                doPushCommand(args[1], args[2]);
+            }
+            case "pull" -> {
+                validArgs(args, 3);
+                doPullCommand(args[1], args[2]);
+            }
+            case "diff" -> {
+                /* diff [commit] [commit] [-- file] */
+                int end = Arrays.asList(args).indexOf("--");
+                if (end >= 0 && end != args.length - 2 || end < 0 && args.length > 3 || end > 3) {
+                    throw error("Incorrect operands.");
+                }
+                end = end < 0 ? args.length : end;
+                doDiffCommand(end > 1 ? args[1] : null, end > 2 ? args[2] : null,
+                        end < args.length ? args[end + 1] : null);
+            }
+            case "gc" -> {
+                validArgs(args, 1);
+                doGcCommand();
+            }
+            case "migrate" -> {
+                validArgs(args, 1);
+                doMigrateCommand();
+            }
             default -> {
-                message("No command with that name exists.");
-                System.exit(0);
+                throw error("No command with that name exists.");
             }
         }
 
-        writeContents(HEAD_FILE, getHash(HEAD)); // Save HEAD
-        stagingArea.save(); // Save staging area
-        gitTree.save(); // Save tree
+        saveState(); // Save HEAD, staging area and tree if changed
+        Journal.commit(); // Update refs together
+        Index.saveIfChanged(); // Save stat cache of CWD
+        ObjectCache.printStats();
+    }
+
+    /** Serve commands, or stop the daemon serving them ("daemon stop"). */
+    private static void doDaemonCommand(String[] args) {
+        if (args.length == 1) {
+            Daemon.serve();
+        } else if (args.length == 2 && args[1].equals("stop")) {
+            Daemon.stop();
+        } else {
+            throw error("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Return {limit, since} of "[-n NUMBER] [--since DATE]" options of log commands, where since is
+     * in milliseconds and DATE is like 2024-01-31 or 2024-01-31T08:00:00 (local time).
+     */
+    private static long[] logOptions(String[] args) {
+        long[] options = {Integer.MAX_VALUE, Long.MIN_VALUE};
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                throw error("Incorrect operands.");
+            }
+            try {
+                switch (args[i]) {
+                    case "-n" -> options[0] = Math.max(0, Integer.parseInt(args[i + 1]));
+                    case "--since" -> {
+                        LocalDateTime since = args[i + 1].contains("T") ? LocalDateTime.parse(args[i + 1])
+                                : LocalDate.parse(args[i + 1]).atStartOfDay();
+                        options[1] = since.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                    }
+                    default -> throw error("Incorrect operands.");
+                }
+            } catch (NumberFormatException | DateTimeParseException excp) {
+                throw error("Incorrect operands.");
+            }
+        }
+        return options;
     }
 
     /** Assert the number of argument be num. */
     private static void validArgs(String[] args, int num) {
         if (args.length != num) {
-            message("Incorrect operands.");
-            System.exit(0);
+            throw error("Incorrect operands.");
         }
     }
 }
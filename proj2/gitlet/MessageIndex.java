@@ -0,0 +1,222 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+import static gitlet.FileSystem.*;
+
+/**
+ * Inverted index of commit messages for find. The index file has an entry (SHA-1 and message)
+ * per commit, in the same order as the commit-graph, appended when commits are made. Commits
+ * which are not indexed yet (made before the index existed, or fetched) are indexed from the
+ * commit-graph when the index is used.
+ *
+ * In memory, commits are looked up by whole message, by lower-case word (token), and by
+ * trigram of the lower-case message for substring search, so that a search only touches the
+ * commits it may match.
+ */
+class MessageIndex {
+    /** Name of the index file in GITLET_DIR. */
+    static final String FILE_NAME = "message-index";
+    /** Magic number of index file ("GMSG"). */
+    private static final int MAGIC = 0x474d5347;
+    /** Version of index format. */
+    private static final int VERSION = 1;
+    /** Length of header: magic, version. */
+    private static final int HEADER_LENGTH = 8;
+
+    /** Index of the repository, loaded when first used. */
+    private static MessageIndex index;
+
+    /** Message of each commit, by position in the commit-graph. */
+    private final List<String> messages = new ArrayList<>();
+    /** Map whole message to positions of commits. */
+    private final Map<String, List<Integer>> byMessage = new HashMap<>();
+    /** Map lower-case word to positions of commits. */
+    private final Map<String, List<Integer>> byToken = new HashMap<>();
+    /** Map trigram of lower-case message to positions of commits. */
+    private final Map<String, List<Integer>> byTrigram = new HashMap<>();
+    /** Length of the index file up to the last entry matching the commit-graph. */
+    private long validLength = 0;
+
+    /** Return index of the repository, with all commits in the commit-graph indexed. */
+    static MessageIndex get() {
+        if (index == null) {
+            index = new MessageIndex();
+            index.load();
+        }
+        index.catchUp();
+        return index;
+    }
+
+    /** Forget index, so that it will be loaded again (when other processes may have changed it). */
+    static void invalidate() {
+        index = null;
+    }
+
+    /** Index new commits if the index is in use (otherwise they are indexed when it is first used). */
+    static void update() {
+        if (index != null || join(GITLET_DIR, FILE_NAME).exists()) {
+            get();
+        }
+    }
+
+    /** Return SHA-1 of commits with given message, in the order they are made. */
+    List<String> findMessage(String message) {
+        return ids(byMessage.getOrDefault(message, List.of()));
+    }
+
+    /** Return SHA-1 of commits whose message has all words of query, in the order they are made. */
+    List<String> findTokens(String query) {
+        List<String> tokens = tokens(query);
+        if (tokens.isEmpty()) {
+            return List.of();
+        }
+        List<Integer> result = null;
+        for (String token : tokens) {
+            List<Integer> positions = byToken.getOrDefault(token, List.of());
+            result = result == null ? positions : intersect(result, positions);
+        }
+        return ids(result);
+    }
+
+    /** Return SHA-1 of commits whose message contains text (ignoring case), in the order they are made. */
+    List<String> findSubstring(String text) {
+        String lowerText = text.toLowerCase(Locale.ROOT);
+        List<Integer> candidates = null;
+        for (int i = 0; i + 3 <= lowerText.length(); i += 1) {
+            List<Integer> positions = byTrigram.getOrDefault(lowerText.substring(i, i + 3), List.of());
+            candidates = candidates == null ? positions : intersect(candidates, positions);
+        }
+        if (candidates == null) { // Shorter than a trigram
+            candidates = new ArrayList<>();
+            for (int i = 0; i < messages.size(); i += 1) {
+                candidates.add(i);
+            }
+        }
+        List<Integer> result = new ArrayList<>();
+        for (int position : candidates) {
+            if (messages.get(position).toLowerCase(Locale.ROOT).contains(lowerText)) {
+                result.add(position); // Trigrams only narrow down candidates
+            }
+        }
+        return ids(result);
+    }
+
+    private List<String> ids(List<Integer> positions) {
+        CommitGraph graph = CommitGraph.get(GITLET_DIR.getPath());
+        List<String> result = new ArrayList<>(positions.size());
+        for (int position : positions) {
+            result.add(graph.id(position));
+        }
+        return result;
+    }
+
+    /** Return positions in both sorted lists. */
+    private static List<Integer> intersect(List<Integer> a, List<Integer> b) {
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0, j = 0; i < a.size() && j < b.size(); ) {
+            int cmp = Integer.compare(a.get(i), b.get(j));
+            if (cmp == 0) {
+                result.add(a.get(i));
+            }
+            i += cmp <= 0 ? 1 : 0;
+            j += cmp >= 0 ? 1 : 0;
+        }
+        return result;
+    }
+
+    /** Return distinct lower-case words of text. */
+    private static List<String> tokens(String text) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                result.add(token);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Add message of commit at the next position to maps. */
+    private void put(String message) {
+        int position = messages.size();
+        messages.add(message);
+        byMessage.computeIfAbsent(message, (key) -> new ArrayList<>()).add(position);
+        for (String token : tokens(message)) {
+            byToken.computeIfAbsent(token, (key) -> new ArrayList<>()).add(position);
+        }
+        String lowerMessage = message.toLowerCase(Locale.ROOT);
+        Set<String> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= lowerMessage.length(); i += 1) {
+            trigrams.add(lowerMessage.substring(i, i + 3));
+        }
+        for (String trigram : trigrams) {
+            byTrigram.computeIfAbsent(trigram, (key) -> new ArrayList<>()).add(position);
+        }
+    }
+
+    /** Read the index file, stopping at the first entry which does not match the commit-graph. */
+    private void load() {
+        File file = join(GITLET_DIR, FILE_NAME);
+        if (!file.exists()) {
+            return;
+        }
+        CommitGraph graph = CommitGraph.get(GITLET_DIR.getPath());
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return; // Indexed again
+            }
+            validLength = HEADER_LENGTH;
+            byte[] id = new byte[UID_LENGTH / 2];
+            while (in.available() > 0) {
+                in.readFully(id);
+                byte[] message = new byte[in.readInt()];
+                in.readFully(message);
+                if (messages.size() >= graph.size() || !graph.id(messages.size()).equals(toHex(id))) {
+                    break; // The rest is indexed again
+                }
+                put(new String(message, StandardCharsets.UTF_8));
+                validLength += id.length + 4 + message.length;
+            }
+        } catch (IOException excp) {
+            return; // A truncated entry is indexed again
+        }
+    }
+
+    /** Index commits of the commit-graph which are not indexed yet, and append them to the index file. */
+    private void catchUp() {
+        CommitGraph graph = CommitGraph.get(GITLET_DIR.getPath());
+        for (String leaf : gitTree.leafs) {
+            graph.position(leaf); // Add commits made before the commit-graph existed
+        }
+        if (messages.size() == graph.size()) {
+            return;
+        }
+
+        File file = join(GITLET_DIR, FILE_NAME);
+        boolean append = file.exists() && file.length() == validLength;
+        int first = append ? messages.size() : 0; // Otherwise write valid entries again, dropping the rest
+        for (int position = messages.size(); position < graph.size(); position += 1) {
+            put(Commit.get(graph.id(position)).message);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append)))) {
+            if (!append) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                validLength = HEADER_LENGTH;
+            }
+            for (int position = first; position < messages.size(); position += 1) {
+                byte[] message = messages.get(position).getBytes(StandardCharsets.UTF_8);
+                out.write(toBytes(graph.id(position)));
+                out.writeInt(message.length);
+                out.write(message);
+                validLength += UID_LENGTH / 2 + 4 + message.length;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package gitlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * A bounded LRU cache of objects loaded in this process, keyed by full SHA-1, so that
+ * objects used again and again (like the head commit in status) are read only once.
+ *
+ * Each object has a weight (roughly its size in bytes), and least recently used objects
+ * are evicted when the total weight exceeds MAX_WEIGHT. Objects are content-addressed,
+ * so the same SHA-1 always means the same contents, in any repository.
+ */
+class ObjectCache {
+    /** Max total weight of cached objects. */
+    static final long MAX_WEIGHT = 32L << 20;
+    /** Set this system property to print hits and misses to stderr on exit. */
+    static final String STATS_PROPERTY = "gitlet.cacheStats";
+
+    /** Cached object and its weight. */
+    private static class Entry {
+        final Object object;
+        final long weight;
+
+        Entry(Object object, long weight) {
+            this.object = object;
+            this.weight = weight;
+        }
+    }
+
+    /** Map SHA-1 to entry, in access order. */
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    /** Total weight of cached objects. */
+    private static long weight = 0;
+    /** Number of lookups which find the object. */
+    private static long hits = 0;
+    /** Number of lookups which do not find the object. */
+    private static long misses = 0;
+
+    /** Return cached object with given SHA-1, or return null if not cached. */
+    static synchronized <T> T get(String hash, Class<T> expectedClass) {
+        Entry entry = entries.get(hash);
+        if (entry == null || !expectedClass.isInstance(entry.object)) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return expectedClass.cast(entry.object);
+    }
+
+    /**
+     * Return cached object with given SHA-1, or load it (null if not find) and cache it
+     * with the weight given by weigher.
+     */
+    static <T> T load(String hash, Class<T> expectedClass, Function<String, T> loader, ToLongFunction<T> weigher) {
+        T object = get(hash, expectedClass);
+        if (object == null) {
+            object = loader.apply(hash);
+            if (object != null) {
+                put(hash, object, weigher.applyAsLong(object));
+            }
+        }
+        return object;
+    }
+
+    /** Cache object with given SHA-1 and weight, then evict least recently used objects if needed. */
+    static synchronized void put(String hash, Object object, long objectWeight) {
+        if (objectWeight > MAX_WEIGHT) {
+            return; // Would evict everything else
+        }
+        Entry old = entries.put(hash, new Entry(object, objectWeight));
+        if (old != null) {
+            weight -= old.weight;
+        }
+        weight += objectWeight;
+
+        var iterator = entries.values().iterator();
+        while (weight > MAX_WEIGHT) {
+            weight -= iterator.next().weight;
+            iterator.remove();
+        }
+    }
+
+    /** Forget object with given SHA-1 (when it is deleted). */
+    static synchronized void remove(String hash) {
+        Entry old = entries.remove(hash);
+        if (old != null) {
+            weight -= old.weight;
+        }
+    }
+
+    /** Print hits and misses to stderr if STATS_PROPERTY is set. */
+    static synchronized void printStats() {
+        if (System.getProperty(STATS_PROPERTY) != null) {
+            System.err.printf("object cache: %d hits, %d misses, %d objects, %d bytes%n",
+                    hits, misses, entries.size(), weight);
+        }
+    }
+
+    /** Return approximate weight of a map of names to SHA-1. */
+    static long weightOf(Map<String, String> files) {
+        return files == null ? 0 : files.size() * 128L;
+    }
+}
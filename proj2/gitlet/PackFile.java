@@ -0,0 +1,547 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+import static gitlet.FileSystem.*;
+
+/**
+ * A pack of immutable objects (Blob, Tree, Commit) stored in objects/pack, inspired by
+ * <a href="https://git-scm.com/docs/pack-format">...</a>.
+ *
+ * The ".pack" file is an append-only sequence of deflated entries. The ".idx" file
+ * holds a fanout table on the first byte of SHA-1, the sorted SHA-1s and the offset
+ * of each entry in the ".pack" file. Both are read through memory-mapped I/O, so a pack
+ * is at most MAX_PACK_SIZE long, and larger sets of objects are written as several packs.
+ *
+ * An entry is either a whole object, or a {@link Delta} against a base object in the
+ * same pack. Delta chains are at most MAX_DELTA_DEPTH long, and recently rebuilt bases
+ * are cached. Whole objects can be streamed from the mapped file without reading them
+ * into memory, while objects stored as delta are rebuilt in memory.
+ */
+class PackFile {
+    /** Name of the folder containing packs in OBJECTS_DIR. */
+    static final String PACK_DIR_NAME = "pack";
+    /** Magic number of ".pack" file ("PACK"). */
+    private static final int PACK_MAGIC = 0x5041434b;
+    /** Magic number of ".idx" file ("PIDX"). */
+    private static final int INDEX_MAGIC = 0x50494458;
+    /** Version of pack format. */
+    private static final int VERSION = 1;
+    /** Length of a SHA-1 in bytes. */
+    private static final int HASH_BYTES = UID_LENGTH / 2;
+    /** Number of entries in fanout table. */
+    private static final int FANOUT_SIZE = 256;
+    /** Length of ".pack" header: magic, version, number of objects. */
+    private static final int PACK_HEADER_LENGTH = 12;
+    /** Length of ".idx" header: magic, version. */
+    private static final int INDEX_HEADER_LENGTH = 8;
+    /** Entry type of a whole object. */
+    static final byte TYPE_OBJECT = 1;
+    /** Entry type of a delta against a base object. */
+    static final byte TYPE_DELTA = 2;
+    /** Max length of delta chains. */
+    static final int MAX_DELTA_DEPTH = 10;
+    /** Number of previous versions tried as delta bases. */
+    static final int DELTA_WINDOW = 10;
+    /** Length of an entry header: type, length, compressed length (followed by SHA-1 of base for delta). */
+    private static final int ENTRY_HEADER_LENGTH = 9;
+    /** Max length of a pack in bytes, so that offsets fit in mapped buffers. */
+    static final long MAX_PACK_SIZE = Integer.MAX_VALUE;
+    /** Size of buffer used for streaming. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Max total size of cached delta bases in bytes. */
+    private static final long BASE_CACHE_SIZE = 32 << 20;
+
+    /** Recently rebuilt delta bases, in order of access. */
+    private static final LinkedHashMap<String, byte[]> baseCache = new LinkedHashMap<>(16, 0.75f, true);
+    /** Total size of cached delta bases in bytes. */
+    private static long baseCacheSize = 0;
+
+    /** Packs opened in this process, keyed by gitlet directory (local or remote). */
+    private static final Map<String, List<PackFile>> packs = new HashMap<>();
+
+    /** The ".pack" file. */
+    final File packFile;
+    /** The ".idx" file. */
+    final File indexFile;
+    /** Mapped ".pack" file. */
+    private final MappedByteBuffer data;
+    /** Mapped ".idx" file. */
+    private final MappedByteBuffer index;
+    /** Number of objects in the pack. */
+    final int size;
+
+    /** Open pack with given ".idx" file. */
+    private PackFile(File indexFile) {
+        this.indexFile = indexFile;
+        String name = indexFile.getName();
+        this.packFile = join(indexFile.getParentFile(), name.substring(0, name.length() - 4) + ".pack");
+        this.index = map(indexFile);
+        this.data = map(packFile);
+
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION
+                || data.getInt(0) != PACK_MAGIC || data.getInt(4) != VERSION) {
+            throw error("Corrupted pack %s.", packFile.getName());
+        }
+        this.size = index.getInt(fanoutPosition(FANOUT_SIZE - 1));
+    }
+
+    /** Return all packs in OBJECTS_DIR (local or remote). */
+    static synchronized List<PackFile> list(String gitletDir) {
+        List<PackFile> result = packs.get(gitletDir);
+        if (result == null) {
+            result = new ArrayList<>();
+            File packDir = join(gitletDir, "objects", PACK_DIR_NAME);
+            for (String name : new DirList(packDir, (dir, name) -> name.endsWith(".idx")).names) {
+                result.add(new PackFile(join(packDir, name)));
+            }
+            packs.put(gitletDir, result);
+        }
+        return result;
+    }
+
+    /** Forget packs opened for the gitlet directory, so that they will be listed again. */
+    static synchronized void invalidate(String gitletDir) {
+        packs.remove(gitletDir);
+    }
+
+    /** Return whether the pack contains object with given SHA-1. */
+    boolean contains(String hash) {
+        return find(hash) >= 0;
+    }
+
+    /** Add SHA-1 of objects beginning with given prefix to result. */
+    void search(String prefix, Set<String> result) {
+        if (prefix.isEmpty()) {
+            return;
+        }
+        int first = Character.digit(prefix.charAt(0), 16) << 4;
+        int last = prefix.length() == 1 ? first + 15 : first | Character.digit(prefix.charAt(1), 16);
+        if (prefix.length() >= 2) {
+            first = last;
+        }
+
+        int low = first == 0 ? 0 : index.getInt(fanoutPosition(first - 1));
+        int high = index.getInt(fanoutPosition(last));
+        /* Lower bound of prefix in [low, high) */
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (hashAt(mid).compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < size; i += 1) {
+            String hash = hashAt(i);
+            if (!hash.startsWith(prefix)) {
+                break;
+            }
+            result.add(hash);
+        }
+    }
+
+    /** Return contents of object with given SHA-1, or return null if not in the pack. */
+    byte[] read(String hash) {
+        int position = find(hash);
+        if (position < 0) {
+            return null;
+        }
+        return readEntry(offsetAt(position));
+    }
+
+    /** Return a stream of contents of object with given SHA-1, or return null if not in the pack. */
+    InputStream open(String hash) {
+        int position = find(hash);
+        if (position < 0) {
+            return null;
+        }
+        ByteBuffer entry = data.duplicate();
+        entry.position((int) offsetAt(position));
+        if (entry.get() != TYPE_OBJECT) {
+            return new ByteArrayInputStream(readEntry(offsetAt(position)));
+        }
+        entry.getInt(); // Length
+        int compressedLength = entry.getInt();
+        entry.limit(entry.position() + compressedLength);
+        return new InflaterInputStream(new BufferInputStream(entry.slice()), new Inflater(), BUFFER_SIZE);
+    }
+
+    /** Return SHA-1 of all objects in the pack in order. */
+    List<String> hashes() {
+        List<String> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i += 1) {
+            result.add(hashAt(i));
+        }
+        return result;
+    }
+
+    /** Return contents of entry at given offset of ".pack" file. */
+    private byte[] readEntry(long offset) {
+        ByteBuffer entry = data.duplicate();
+        entry.position((int) offset);
+        byte type = entry.get();
+        int length = entry.getInt();
+        int compressedLength = entry.getInt();
+        String baseHash = null;
+        if (type == TYPE_DELTA) {
+            byte[] base = new byte[HASH_BYTES];
+            entry.get(base);
+            baseHash = toHex(base);
+        } else if (type != TYPE_OBJECT) {
+            throw error("Corrupted pack %s.", packFile.getName());
+        }
+
+        byte[] compressed = new byte[compressedLength];
+        entry.get(compressed);
+        byte[] contents = inflate(compressed, length);
+        if (baseHash == null) {
+            return contents;
+        }
+        return Delta.apply(readBase(baseHash), contents);
+    }
+
+    /** Return contents of delta base with given SHA-1, from cache if it is recently rebuilt. */
+    private byte[] readBase(String hash) {
+        synchronized (baseCache) {
+            byte[] base = baseCache.get(hash);
+            if (base != null) {
+                return base;
+            }
+        }
+
+        byte[] base = read(hash);
+        if (base == null) {
+            throw error("Corrupted pack %s.", packFile.getName());
+        }
+        synchronized (baseCache) {
+            if (baseCache.put(hash, base) == null) {
+                baseCacheSize += base.length;
+            }
+            Iterator<byte[]> iterator = baseCache.values().iterator();
+            while (baseCacheSize > BASE_CACHE_SIZE && baseCache.size() > 1) {
+                baseCacheSize -= iterator.next().length;
+                iterator.remove();
+            }
+        }
+        return base;
+    }
+
+    /** Return position of given SHA-1 in the sorted index, or -1 if not in the pack. */
+    private int find(String hash) {
+        if (hash == null || hash.length() != UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = toBytes(hash);
+        int first = key[0] & 0xff;
+        int low = first == 0 ? 0 : index.getInt(fanoutPosition(first - 1));
+        int high = index.getInt(fanoutPosition(first)) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareHashAt(mid, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Compare SHA-1 at given position of the index with key. */
+    private int compareHashAt(int position, byte[] key) {
+        int base = hashPosition(position);
+        for (int i = 0; i < HASH_BYTES; i += 1) {
+            int cmp = Integer.compare(index.get(base + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Return SHA-1 at given position of the index. */
+    private String hashAt(int position) {
+        byte[] hash = new byte[HASH_BYTES];
+        index.get(hashPosition(position), hash);
+        return toHex(hash);
+    }
+
+    /** Return offset in ".pack" file of object at given position of the index. */
+    private long offsetAt(int position) {
+        return index.getLong(INDEX_HEADER_LENGTH + FANOUT_SIZE * 4 + size * HASH_BYTES + position * 8);
+    }
+
+    private static int fanoutPosition(int firstByte) {
+        return INDEX_HEADER_LENGTH + firstByte * 4;
+    }
+
+    private static int hashPosition(int position) {
+        return INDEX_HEADER_LENGTH + FANOUT_SIZE * 4 + position * HASH_BYTES;
+    }
+
+    /** Map the whole file into memory (read only). */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stream of the remaining bytes of a buffer. */
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            } else if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, n);
+            return n;
+        }
+    }
+
+    /* Compression */
+
+    /** Return deflated contents. */
+    static byte[] deflate(byte[] contents) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(contents);
+        deflater.finish();
+        byte[] buffer = new byte[Math.max(64, contents.length / 2)];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        deflater.end();
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /** Return inflated contents with given length. */
+    static byte[] inflate(byte[] compressed, int length) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        byte[] contents = new byte[length];
+        try {
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                read += inflater.inflate(contents, read, length - read);
+            }
+        } catch (DataFormatException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return contents;
+    }
+
+    /**
+     * Writes new packs. Objects can be added in any order, and the index is sorted when finished.
+     * A pack is finished and a new one started before it grows past MAX_PACK_SIZE, so that every
+     * offset fits in the int positions of mapped buffers.
+     */
+    static class Writer {
+        /** Folder containing packs. */
+        private final File packDir;
+        /** Packs finished so far. */
+        private final List<File> packFiles = new ArrayList<>();
+        /** SHA-1 of objects added to all packs. */
+        private final Set<String> added = new HashSet<>();
+        /** Temporary ".pack" file of the current pack. */
+        private File tempFile;
+        /** Output stream of temporary ".pack" file. */
+        private DataOutputStream out;
+        /** Map SHA-1 of objects in the current pack to offset in ".pack" file. */
+        private final Map<String, Long> offsets = new TreeMap<>();
+        /** Map SHA-1 of objects added as delta to the current pack to length of their delta chain. */
+        private final Map<String, Integer> depths = new HashMap<>();
+        /** Current offset in ".pack" file. */
+        private long offset;
+
+        /** Create a writer for new packs in OBJECTS_DIR (local or remote). */
+        Writer(String gitletDir) {
+            packDir = join(gitletDir, "objects", PACK_DIR_NAME);
+            packDir.mkdir();
+            start();
+        }
+
+        /** Start a new pack in a temporary file. */
+        private void start() {
+            try {
+                tempFile = File.createTempFile("tmp_pack_", null, packDir);
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(0); // Number of objects is in the index
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            offset = PACK_HEADER_LENGTH;
+        }
+
+        /** Return whether object with given SHA-1 is added. */
+        boolean contains(String hash) {
+            return added.contains(hash);
+        }
+
+        /** Return number of objects added. */
+        int size() {
+            return added.size();
+        }
+
+        /** Append object with given SHA-1 and contents (ignore if already added). */
+        void add(String hash, byte[] contents) {
+            add(hash, contents, Collections.emptyMap());
+        }
+
+        /**
+         * Append object with given SHA-1 and contents (ignore if already added). It is stored as
+         * delta against one of the candidate bases (map SHA-1 to contents) already added to the
+         * current pack if that is smaller than the whole object.
+         */
+        void add(String hash, byte[] contents, Map<String, byte[]> bases) {
+            if (added.contains(hash)) {
+                return;
+            }
+
+            /* Find the smallest delta */
+            String baseHash = null;
+            byte[] delta = null;
+            for (Map.Entry<String, byte[]> base : bases.entrySet()) {
+                if (!offsets.containsKey(base.getKey())
+                        || depths.getOrDefault(base.getKey(), 0) >= MAX_DELTA_DEPTH) {
+                    continue;
+                }
+                byte[] candidate = Delta.create(base.getValue(), contents);
+                if (candidate != null && (delta == null || candidate.length < delta.length)) {
+                    baseHash = base.getKey();
+                    delta = candidate;
+                }
+            }
+
+            byte[] compressed = deflate(delta == null ? contents : delta);
+            if (offset + ENTRY_HEADER_LENGTH + HASH_BYTES + compressed.length > MAX_PACK_SIZE && !offsets.isEmpty()) {
+                writePack();
+                start();
+                if (delta != null) { // The base is in the finished pack
+                    baseHash = null;
+                    delta = null;
+                    compressed = deflate(contents);
+                }
+            }
+            if (PACK_HEADER_LENGTH + ENTRY_HEADER_LENGTH + HASH_BYTES + (long) compressed.length > MAX_PACK_SIZE) {
+                throw error("Object %s is too large to pack.", hash);
+            }
+            try {
+                out.writeByte(delta == null ? TYPE_OBJECT : TYPE_DELTA);
+                out.writeInt(delta == null ? contents.length : delta.length);
+                out.writeInt(compressed.length);
+                if (delta != null) {
+                    out.write(toBytes(baseHash));
+                }
+                out.write(compressed);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            offsets.put(hash, offset);
+            added.add(hash);
+            offset += ENTRY_HEADER_LENGTH + compressed.length;
+            if (delta != null) {
+                depths.put(hash, depths.getOrDefault(baseHash, 0) + 1);
+                offset += HASH_BYTES;
+            }
+        }
+
+        /** Finish the current pack, and return all packs written (empty if nothing is added). */
+        List<File> finish() {
+            writePack();
+            return packFiles;
+        }
+
+        /** Write the index of the current pack and move both to their final names. */
+        private void writePack() {
+            try {
+                out.close();
+                if (offsets.isEmpty()) {
+                    tempFile.delete();
+                    return;
+                }
+
+                String name = "pack-" + sha1(new ArrayList<>(offsets.keySet()));
+                File packFile = join(packDir, name + ".pack");
+                File indexFile = join(packDir, name + ".idx");
+                if (!tempFile.renameTo(packFile)) {
+                    throw error("Cannot write pack %s.", name);
+                }
+
+                /* Index is written last, since a pack is visible only when its index exists */
+                File tempIndex = File.createTempFile("tmp_idx_", null, packDir);
+                DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempIndex)));
+                idx.writeInt(INDEX_MAGIC);
+                idx.writeInt(VERSION);
+                int[] fanout = new int[FANOUT_SIZE];
+                for (String hash : offsets.keySet()) {
+                    fanout[Integer.parseInt(hash.substring(0, 2), 16)] += 1;
+                }
+                int count = 0;
+                for (int i = 0; i < FANOUT_SIZE; i += 1) {
+                    count += fanout[i];
+                    idx.writeInt(count);
+                }
+                for (String hash : offsets.keySet()) {
+                    idx.write(toBytes(hash));
+                }
+                for (long entryOffset : offsets.values()) {
+                    idx.writeLong(entryOffset);
+                }
+                idx.close();
+                if (!tempIndex.renameTo(indexFile)) {
+                    throw error("Cannot write pack %s.", name);
+                }
+                String gitletDir = packDir.getParentFile().getParent();
+                Journal.written(gitletDir, packFile);
+                Journal.written(gitletDir, indexFile);
+                packFiles.add(packFile);
+                offsets.clear();
+                depths.clear();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package gitlet;
+
+import java.util.*;
+
+import static gitlet.FileSystem.*;
+
+/**
+ * Sorted SHA-1 of loose objects, built once per process, so that abbreviate SHA-1 is resolved
+ * by binary search rather than listing an object folder on every lookup. Packs are searched
+ * through their own sorted ".idx" files. Objects saved or deleted by this process update the index.
+ */
+class PrefixIndex {
+    /** Indexes built in this process, keyed by gitlet directory (local or remote). */
+    private static final Map<String, PrefixIndex> indexes = new HashMap<>();
+
+    /** SHA-1 of loose objects. */
+    private final NavigableSet<String> looseIds;
+
+    private PrefixIndex(String gitletDir) {
+        looseIds = new TreeSet<>(looseObjects(gitletDir));
+    }
+
+    /** Return index of the gitlet directory (local or remote). */
+    static synchronized PrefixIndex get(String gitletDir) {
+        return indexes.computeIfAbsent(gitletDir, PrefixIndex::new);
+    }
+
+    /** Record that a loose object with given SHA-1 is saved. */
+    static synchronized void added(String hash, String gitletDir) {
+        PrefixIndex index = indexes.get(gitletDir);
+        if (index != null) {
+            index.looseIds.add(hash);
+        }
+    }
+
+    /** Record that a loose object with given SHA-1 is deleted. */
+    static synchronized void removed(String hash, String gitletDir) {
+        PrefixIndex index = indexes.get(gitletDir);
+        if (index != null) {
+            index.looseIds.remove(hash);
+        }
+    }
+
+    /** Forget index of the gitlet directory, so that it will be built again (after objects are packed). */
+    static synchronized void invalidate(String gitletDir) {
+        indexes.remove(gitletDir);
+    }
+
+    /**
+     * Return SHA-1 of objects starting with prefix, in loose objects and packs. At most limit
+     * SHA-1 are returned, which is enough to tell whether the prefix is ambiguous.
+     */
+    synchronized Set<String> search(String prefix, int limit, List<PackFile> packs) {
+        Set<String> result = new TreeSet<>();
+        for (String hash : looseIds.tailSet(prefix, true)) {
+            if (!hash.startsWith(prefix) || result.size() >= limit) {
+                break;
+            }
+            result.add(hash);
+        }
+        for (PackFile pack : packs) {
+            if (result.size() >= limit) {
+                break;
+            }
+            pack.search(prefix, result);
+        }
+        return result;
+    }
+}
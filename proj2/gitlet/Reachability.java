@@ -0,0 +1,173 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import static gitlet.Utils.*;
+import static gitlet.FileSystem.*;
+
+/**
+ * Bitmaps of commits reachable from commits (like git's reachability bitmaps), over positions
+ * in the commit-graph, so that "reachable from X but not from Y" is a set operation rather than
+ * a walk of history.
+ *
+ * gc saves bitmaps of branch heads and leaves of the git tree in the bitmaps file, so that all
+ * commits (for global-log) are the union of bitmaps of leaves. Bitmaps of other commits are built by
+ * walking the commit-graph until commits with a bitmap, which are few steps back when branches
+ * only moved a little since the last gc. Positions of commits never change, since commits are
+ * only appended to the commit-graph.
+ */
+class Reachability {
+    /** Name of the bitmaps file in GITLET_DIR. */
+    static final String FILE_NAME = "bitmaps";
+    /** Magic number of bitmaps file ("GBMP"). */
+    private static final int MAGIC = 0x47424d50;
+    /** Version of bitmaps format. */
+    private static final int VERSION = 1;
+
+    /** Reachability indexes opened in this process, keyed by gitlet directory (local or remote). */
+    private static final Map<String, Reachability> indexes = new HashMap<>();
+
+    /** Gitlet directory (local or remote). */
+    private final String gitletDir;
+    /** The commit-graph bitmaps are over. */
+    private final CommitGraph graph;
+    /** Map position of commit to bitmap of positions of commits reachable from it (itself included). */
+    private final Map<Integer, Bitmap> bitmaps = new HashMap<>();
+
+    private Reachability(String gitletDir) {
+        this.gitletDir = gitletDir;
+        this.graph = CommitGraph.get(gitletDir);
+        File file = join(gitletDir, FILE_NAME);
+        if (file.exists()) {
+            load(file);
+        }
+    }
+
+    /** Return reachability index of the gitlet directory (local or remote). */
+    static Reachability get(String gitletDir) {
+        Reachability index = indexes.get(gitletDir);
+        if (index == null || index.graph != CommitGraph.get(gitletDir)) { // Commit-graph is loaded again
+            index = new Reachability(gitletDir);
+            indexes.put(gitletDir, index);
+        }
+        return index;
+    }
+
+    /** Forget reachability index of the gitlet directory, so that it will be loaded again. */
+    static void invalidate(String gitletDir) {
+        indexes.remove(gitletDir);
+    }
+
+    /** Return bitmap of commits reachable from commit with given SHA-1. Do not modify it. */
+    Bitmap reachable(String commitID) {
+        return reachable(graph.position(commitID));
+    }
+
+    private Bitmap reachable(int position) {
+        Bitmap result = bitmaps.get(position);
+        if (result != null) {
+            return result;
+        }
+
+        result = new Bitmap();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(position);
+        while (!stack.isEmpty()) {
+            int cur = stack.pop();
+            if (result.contains(cur)) {
+                continue;
+            }
+            Bitmap known = bitmaps.get(cur);
+            if (known != null) {
+                result = result.or(known);
+                continue;
+            }
+            result.add(cur);
+            for (int parent : new int[]{graph.parent1(cur), graph.parent2(cur)}) {
+                if (parent != CommitGraph.NONE && !result.contains(parent)) {
+                    stack.push(parent);
+                }
+            }
+        }
+        bitmaps.put(position, result);
+        return result;
+    }
+
+    /** Return whether commit ancestor is reachable from commit descendant. */
+    boolean isAncestor(String ancestor, String descendant) {
+        return containsObject(ancestor, gitletDir) && reachable(descendant).contains(graph.position(ancestor));
+    }
+
+    /** Return SHA-1 of commits reachable from include but not from exclude (if not null), in the order they are made. */
+    List<String> range(String include, String exclude) {
+        Bitmap commits = reachable(include);
+        if (exclude != null) {
+            commits = commits.andNot(reachable(exclude));
+        }
+        List<String> result = new ArrayList<>(commits.cardinality());
+        commits.forEach((position) -> result.add(graph.id(position)));
+        return result;
+    }
+
+    /** Return SHA-1 of commits reachable from any of tips, in the order they are made. */
+    List<String> all(Collection<String> tips) {
+        Bitmap commits = new Bitmap();
+        for (String tip : tips) {
+            commits = commits.or(reachable(tip));
+        }
+        List<String> result = new ArrayList<>(commits.cardinality());
+        commits.forEach((position) -> result.add(graph.id(position)));
+        return result;
+    }
+
+    /** Build bitmaps of given commits, and save them as the bitmaps file (replacing it). */
+    static void write(String gitletDir, Collection<String> commitIDs) {
+        Reachability index = get(gitletDir);
+        File file = join(gitletDir, FILE_NAME);
+        File temp = join(gitletDir, FILE_NAME + ".lock");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            Set<Integer> positions = new TreeSet<>();
+            for (String commitID : commitIDs) {
+                positions.add(index.graph.position(commitID));
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(positions.size());
+            for (int position : positions) {
+                out.writeInt(position);
+                out.write(toBytes(index.graph.id(position)));
+                index.reachable(position).write(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Read bitmaps whose commits are still at the same position (the commit-graph may be rebuilt). */
+    private void load(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return; // Ignored, since bitmaps are only an index
+            }
+            byte[] id = new byte[UID_LENGTH / 2];
+            for (int i = in.readInt(); i > 0; i -= 1) {
+                int position = in.readInt();
+                in.readFully(id);
+                Bitmap bitmap = Bitmap.read(in);
+                if (position < graph.size() && graph.id(position).equals(toHex(id))) {
+                    bitmaps.put(position, bitmap);
+                }
+            }
+        } catch (IOException excp) {
+            bitmaps.clear();
+        }
+    }
+}
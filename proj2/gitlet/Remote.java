@@ -0,0 +1,202 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static gitlet.Repository.*;
+import static gitlet.FileSystem.*;
+import static gitlet.Utils.*;
+
+/**
+ * Remotes are other gitlet directories on the local file system, saved in REMOTE_FILE as
+ * "NAME=PATH" lines. Branches fetched from a remote are kept as "NAME/BRANCH" in REMOTES_DIR.
+ *
+ * Since the other repository can be read directly, negotiation is simple: commits are walked
+ * back from the tip being sent, stopping at those the receiver already has (which means it
+ * has their whole history too). Missing commits, trees and blobs are then written to the
+ * receiver as a single pack, so a transfer costs in proportion to what changed.
+ */
+class Remote {
+    /** Return map of remote name to path of its gitlet directory. */
+    static Map<String, String> list() {
+        Map<String, String> remotes = new TreeMap<>();
+        if (REMOTE_FILE.exists()) {
+            for (String line : readContentsAsString(REMOTE_FILE).split("\n")) {
+                int equal = line.indexOf('=');
+                if (equal > 0) {
+                    remotes.put(line.substring(0, equal), line.substring(equal + 1));
+                }
+            }
+        }
+        return remotes;
+    }
+
+    /** Save map of remote name to path. */
+    static void save(Map<String, String> remotes) {
+        StringBuilder contents = new StringBuilder();
+        remotes.forEach((name, path) -> contents.append(name).append('=').append(path).append('\n'));
+        writeAtomically(REMOTE_FILE, contents.toString());
+    }
+
+    /**
+     * Return gitlet directory of the remote (checked to exist), used as a key like GITLET_DIR.getPath(),
+     * and lock it for the command (exclusive if it is written).
+     */
+    static String gitletDir(String remoteName, boolean write) {
+        String path = list().get(remoteName);
+        if (path == null) {
+            throw error("A remote with that name does not exist.");
+        }
+        File dir = new File(path.replace("/", File.separator));
+        if (!dir.isAbsolute()) {
+            dir = join(CWD, dir.getPath());
+        }
+        if (!dir.isDirectory()) {
+            throw error("Remote directory not found.");
+        }
+        String gitletDir;
+        try {
+            gitletDir = dir.getCanonicalPath();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        Lock.acquire(gitletDir, write, Lock.REMOTE_TIMEOUT);
+
+        /* The remote may be changed by other processes since its files were opened */
+        CommitGraph.invalidate(gitletDir);
+        PackFile.invalidate(gitletDir);
+        PrefixIndex.invalidate(gitletDir);
+        Reachability.invalidate(gitletDir);
+        Journal.recover(gitletDir);
+        return gitletDir;
+    }
+
+    /** Return ref file of branch in the gitlet directory (local or remote). */
+    static File branchFile(String gitletDir, String branchName) {
+        return join(gitletDir, "refs", "heads", branchName);
+    }
+
+    /** Return head commit of branch in the gitlet directory (local or remote), or return null if no such branch. */
+    static String headCommit(String gitletDir, String branchName) {
+        String hash = Journal.read(branchFile(gitletDir, branchName));
+        if (hash == null) {
+            return null;
+        }
+        return loadObject(hash, gitletDir, Head.class).headCommit;
+    }
+
+    /** Return SHA-1 of commits reachable from tip in source which target does not have. */
+    static List<String> missingCommits(String tip, String source, String target) {
+        /* Negotiate: walk back until commits target already has */
+        List<String> commits = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(tip);
+        while (!stack.isEmpty()) {
+            String id = stack.pop();
+            if (!visited.add(id) || containsObject(id, target)) {
+                continue;
+            }
+            commits.add(id);
+            for (String parent : Commit.load(id, source).parents) {
+                if (parent != null) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return commits;
+    }
+
+    /**
+     * Copy commits (which target does not have) with their trees and blobs from source to a new
+     * pack in target, then add them to the commit-graph of target up to tip.
+     */
+    static void copyObjects(List<String> commits, String tip, String source, String target) {
+        if (commits.isEmpty()) {
+            return;
+        }
+        PackFile.Writer writer = new PackFile.Writer(target);
+        for (String id : commits) {
+            Commit commit = Commit.load(id, source);
+            writer.add(id, readObjectContents(id, source));
+            if (commit.tree != null) {
+                copyTree(commit.tree, source, target, writer);
+            } else {
+                for (String blob : commit.files.values()) { // Commit of old repositories
+                    copyObject(blob, source, target, writer);
+                }
+            }
+        }
+        writer.finish();
+        PackFile.invalidate(target);
+        PrefixIndex.invalidate(target);
+
+        CommitGraph.get(target).position(tip); // Add copied commits, parents first
+    }
+
+    /** Add tree and everything under it that target does not have to the pack. */
+    private static void copyTree(String hash, String source, String target, PackFile.Writer writer) {
+        if (writer.contains(hash) || containsObject(hash, target)) {
+            return; // Target has the whole tree
+        }
+        writer.add(hash, readObjectContents(hash, source));
+        Tree tree = Tree.get(hash, source);
+        for (Map.Entry<String, String> entry : tree.entries.entrySet()) {
+            if (tree.directories.contains(entry.getKey())) {
+                copyTree(entry.getValue(), source, target, writer);
+            } else {
+                copyObject(entry.getValue(), source, target, writer);
+            }
+        }
+    }
+
+    /** Add object to the pack if target does not have it. */
+    private static void copyObject(String hash, String source, String target, PackFile.Writer writer) {
+        if (!writer.contains(hash) && !containsObject(hash, target)) {
+            byte[] contents = readObjectContents(hash, source);
+            writer.add(hash, contents);
+            for (String chunk : Blob.chunksOf(contents)) {
+                copyObject(chunk, source, target, writer);
+            }
+        }
+    }
+
+    /**
+     * Point branch of the remote to commit, after newCommits are copied to it. If the branch is
+     * the current branch of the remote, its HEAD is moved too (its working directory is not). The
+     * refs of the remote are updated together when the command commits (see Journal).
+     */
+    static void updateBranch(String gitletDir, String branchName, String commitID, List<String> newCommits) {
+        File treeFile = join(gitletDir, "git_tree");
+        GitTree tree = loadObject(Journal.read(treeFile), gitletDir, GitTree.class);
+        addLeaves(tree, newCommits, gitletDir);
+        if (tree.dirty) {
+            Journal.write(gitletDir, treeFile, saveObject(tree, gitletDir));
+        }
+
+        Head branch = new Head(branchName);
+        branch.headCommit = commitID;
+        String hash = saveObject(branch, gitletDir);
+        Journal.write(gitletDir, branchFile(gitletDir, branchName), hash);
+        File headFile = join(gitletDir, "HEAD");
+        if (loadObject(Journal.read(headFile), gitletDir, Head.class).name.equals(branchName)) {
+            Journal.write(gitletDir, headFile, hash);
+        }
+    }
+
+    /** Make copied commits leaves of the git tree, replacing their parents. */
+    static void addLeaves(GitTree tree, List<String> commits, String gitletDir) {
+        for (String id : commits) {
+            tree.add(id);
+        }
+        for (String id : commits) {
+            for (String parent : Commit.load(id, gitletDir).parents) {
+                if (parent != null) {
+                    tree.remove(parent);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package gitlet;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Detection of renamed files between two versions, like git. A deleted file and an added file
+ * with the same blob are renamed exactly. Remaining pairs are compared by fingerprints of
+ * their contents: contents are cut into chunks at newlines, or where a rolling hash of the
+ * last bytes hits a boundary pattern (so that inserting bytes only changes nearby chunks), and
+ * similarity is the number of bytes in common chunks over the size of the larger file.
+ *
+ * The threshold of similarity and the max number of compared pairs are set in the config.
+ */
+class Renames {
+    /** Default minimal similarity in percent. */
+    static final int DEFAULT_THRESHOLD = 50;
+    /** Default max number of pairs compared by contents. */
+    static final int DEFAULT_LIMIT = 100000;
+
+    /** Number of last bytes the rolling hash covers. */
+    private static final int WINDOW = 16;
+    /** A chunk ends where the rolling hash has these bits all zero. */
+    private static final int BOUNDARY_MASK = 63;
+    /** Max length of a chunk. */
+    private static final int MAX_CHUNK = 256;
+    /** Multiplier of the rolling hash. */
+    private static final int BASE = 257;
+    /** BASE to the power of WINDOW, to remove the byte leaving the window. */
+    private static final int BASE_POWER;
+
+    static {
+        int power = 1;
+        for (int i = 0; i < WINDOW; i += 1) {
+            power *= BASE;
+        }
+        BASE_POWER = power;
+    }
+
+    /**
+     * Return map of deleted file name to added file name for detected renames. Both arguments
+     * map file names to SHA-1 of blobs; contents returns contents of a blob by its SHA-1.
+     */
+    static Map<String, String> detect(Map<String, String> deleted, Map<String, String> added,
+                                      Function<String, byte[]> contents) {
+        Map<String, String> renames = new TreeMap<>();
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return renames;
+        }
+
+        /* Exact renames */
+        Map<String, Deque<String>> deletedByBlob = new HashMap<>();
+        for (Map.Entry<String, String> entry : deleted.entrySet()) {
+            deletedByBlob.computeIfAbsent(entry.getValue(), (blob) -> new ArrayDeque<>()).add(entry.getKey());
+        }
+        List<String> unmatched = new ArrayList<>();
+        for (Map.Entry<String, String> entry : added.entrySet()) {
+            Deque<String> sources = deletedByBlob.get(entry.getValue());
+            if (sources == null || sources.isEmpty()) {
+                unmatched.add(entry.getKey());
+            } else {
+                renames.put(sources.poll(), entry.getKey());
+            }
+        }
+        List<String> sources = new ArrayList<>(deleted.keySet());
+        sources.removeAll(renames.keySet());
+
+        int threshold = Config.getInt(Config.RENAME_THRESHOLD, DEFAULT_THRESHOLD);
+        long pairs = (long) sources.size() * unmatched.size();
+        if (pairs == 0 || threshold > 100 || pairs > Config.getInt(Config.RENAME_LIMIT, DEFAULT_LIMIT)) {
+            return renames;
+        }
+
+        /* Renames with modifications, the most similar pairs first */
+        Map<String, Map<Integer, Integer>> fingerprints = new HashMap<>();
+        Map<String, Integer> sizes = new HashMap<>();
+        for (String name : sources) {
+            measure(deleted.get(name), contents, fingerprints, sizes);
+        }
+        for (String name : unmatched) {
+            measure(added.get(name), contents, fingerprints, sizes);
+        }
+        List<long[]> candidates = new ArrayList<>(); // [score, source index, target index]
+        for (int i = 0; i < sources.size(); i += 1) {
+            String sourceBlob = deleted.get(sources.get(i));
+            for (int j = 0; j < unmatched.size(); j += 1) {
+                String targetBlob = added.get(unmatched.get(j));
+                int maxSize = Math.max(sizes.get(sourceBlob), sizes.get(targetBlob));
+                int minSize = Math.min(sizes.get(sourceBlob), sizes.get(targetBlob));
+                if ((long) minSize * 100 < (long) maxSize * threshold) {
+                    continue; // Too different in size to be similar enough
+                }
+                long score = maxSize == 0 ? 100
+                        : common(fingerprints.get(sourceBlob), fingerprints.get(targetBlob)) * 100L / maxSize;
+                if (score >= threshold) {
+                    candidates.add(new long[]{score, i, j});
+                }
+            }
+        }
+        candidates.sort((x, y) -> Long.compare(y[0], x[0]));
+        Set<Integer> usedTargets = new HashSet<>();
+        for (long[] candidate : candidates) {
+            String source = sources.get((int) candidate[1]);
+            if (!renames.containsKey(source) && usedTargets.add((int) candidate[2])) {
+                renames.put(source, unmatched.get((int) candidate[2]));
+            }
+        }
+        return renames;
+    }
+
+    /** Record fingerprint and size of blob if not yet. */
+    private static void measure(String blob, Function<String, byte[]> contents,
+                                Map<String, Map<Integer, Integer>> fingerprints, Map<String, Integer> sizes) {
+        if (!sizes.containsKey(blob)) {
+            byte[] bytes = contents.apply(blob);
+            sizes.put(blob, bytes.length);
+            fingerprints.put(blob, fingerprint(bytes));
+        }
+    }
+
+    /** Return map of chunk hash to number of bytes in chunks with that hash. */
+    static Map<Integer, Integer> fingerprint(byte[] bytes) {
+        Map<Integer, Integer> result = new HashMap<>();
+        int rolling = 0;
+        int chunkHash = 0;
+        int start = 0;
+        for (int i = 0; i < bytes.length; i += 1) {
+            int b = bytes[i] & 0xff;
+            rolling = rolling * BASE + b;
+            if (i >= WINDOW) {
+                rolling -= BASE_POWER * (bytes[i - WINDOW] & 0xff);
+            }
+            chunkHash = chunkHash * 31 + b;
+            int length = i + 1 - start;
+            if (b == '\n' || length >= MAX_CHUNK || length >= WINDOW && (rolling & BOUNDARY_MASK) == 0) {
+                result.merge(chunkHash, length, Integer::sum);
+                chunkHash = 0;
+                start = i + 1;
+            }
+        }
+        if (start < bytes.length) {
+            result.merge(chunkHash, bytes.length - start, Integer::sum);
+        }
+        return result;
+    }
+
+    /** Return number of bytes in chunks common to both fingerprints. */
+    private static long common(Map<Integer, Integer> a, Map<Integer, Integer> b) {
+        if (a.size() > b.size()) {
+            return common(b, a);
+        }
+        long result = 0;
+        for (Map.Entry<Integer, Integer> entry : a.entrySet()) {
+            Integer other = b.get(entry.getKey());
+            if (other != null) {
+                result += Math.min(entry.getValue(), other);
+            }
+        }
+        return result;
+    }
+}
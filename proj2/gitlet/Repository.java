@@ -1,7 +1,13 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.*;
 
 import static gitlet.Utils.*;
@@ -25,6 +31,8 @@ public class Repository {
     public static final File STAGING_FILE = join(GITLET_DIR, "staging");
     public static final File TREE_FILE = join(GITLET_DIR, "git_tree");
     public static final File REMOTE_FILE = join(GITLET_DIR, "remote");
+    public static final File INDEX_FILE = join(GITLET_DIR, "index");
+    public static final File CONFIG_FILE = join(GITLET_DIR, "config");
 
     /* Constants */
     /** The length of folders containing commits for abbreviate search. */
@@ -36,16 +44,68 @@ public class Repository {
     public static StagingArea stagingArea = new StagingArea();
     public static GitTree gitTree = new GitTree();
 
+    /** SHA-1 of HEAD, staging area and git tree when they are loaded or saved (null if not yet). */
+    private static String savedHead, savedStaging, savedTree;
+    /** HEAD when it is loaded or saved. */
+    private static Head savedHEAD;
+
+    /* State */
+
+    /** Load HEAD, staging area and git tree, unless they are already loaded and not changed on disk. */
+    static void loadState() {
+        String head = readContentsAsString(HEAD_FILE);
+        if (!head.equals(savedHead)) {
+            HEAD = loadObject(head, GITLET_DIR.getPath(), Head.class);
+            savedHEAD = HEAD;
+            savedHead = head;
+        }
+        String staging = readContentsAsString(STAGING_FILE);
+        if (!staging.equals(savedStaging)) {
+            stagingArea = loadObject(staging, GITLET_DIR.getPath(), StagingArea.class);
+            savedStaging = staging;
+        }
+        String tree = readContentsAsString(TREE_FILE);
+        if (!tree.equals(savedTree)) {
+            gitTree = loadObject(tree, GITLET_DIR.getPath(), GitTree.class);
+            savedTree = tree;
+        }
+    }
+
+    /** Save HEAD, staging area and git tree, but only those which changed, so that read-only commands write nothing. */
+    static void saveState() {
+        if (HEAD != savedHEAD || HEAD.dirty || savedHead == null) {
+            savedHead = updateRef(HEAD_FILE, HEAD);
+            savedHEAD = HEAD;
+            HEAD.dirty = false;
+        }
+        if (stagingArea.dirty || savedStaging == null) {
+            stagingArea.save();
+            savedStaging = Journal.read(STAGING_FILE);
+        }
+        if (gitTree.dirty || savedTree == null) {
+            gitTree.save();
+            savedTree = Journal.read(TREE_FILE);
+        }
+    }
+
+    /** Forget loaded state, so that it is loaded from disk again (when a command fails, its changes are dropped). */
+    static void forgetState() {
+        savedHEAD = null;
+        savedHead = null;
+        savedStaging = null;
+        savedTree = null;
+    }
+
     /* Functions */
 
     static void doInitCommand() {
         if (GITLET_DIR.exists()) {
-            message("A Gitlet version-control system already exists in the current directory.");
-            System.exit(0);
+            throw error("A Gitlet version-control system already exists in the current directory.");
         }
 
         /* Create Directories */
         GITLET_DIR.mkdir();
+        Lock.acquire(GITLET_DIR.getPath(), true);
         OBJECTS_DIR.mkdir();
         REFS_DIR.mkdir();
         HEADS_DIR.mkdir();
@@ -56,39 +116,76 @@ public class Repository {
         Head.makeCommit("initial commit", new Date(0), null);
     }
 
-    static void doAddCommand(String fileName) {
-        /* Check file */
-        if (!isExisted.judge(fileName)) {
-            message("File does not exist.");
-            System.exit(0);
+    /** Add files to staging area. Each path can be a file, a directory, a glob pattern (like *.txt) or "." for all files. */
+    static void doAddCommand(String... paths) {
+        /* Check files */
+        Set<String> fileNames = new TreeSet<>();
+        for (String path : paths) {
+            List<String> matched = matchFiles(path);
+            if (matched.isEmpty()) {
+                throw error("File does not exist.");
+            }
+            fileNames.addAll(matched);
         }
 
-        /* create new blob, track it and add to staging area */
-        Blob newBlob = new Blob(join(CWD, fileName));
-        stagingArea.addition.put(newBlob.name, getHash(newBlob));
+        Index.get().hash(fileNames); // Hash changed files in parallel
+        List<String> newFiles = new ArrayList<>();
+        for (String fileName : fileNames) {
+            /* Restore if it is staged for removal */
+            if (isStagedForRemoval.judge(fileName)) {
+                stagingArea.restore(fileName);
+            }
 
-        /* Restore if it is staged for removal */
-        if (isStagedForRemoval.judge(fileName)) {
-            stagingArea.removal.remove(fileName);
+            /* If same as file in current commit, then remove it from staging area. */
+            if (isSameAsCurrentCommit.judge(fileName)) {
+                stagingArea.unstage(fileName);
+            } else {
+                newFiles.add(fileName);
+            }
         }
 
-        /* If same as file in current commit, then remove it from staging area. */
-        if (isSameAsCurrentCommit.judge(fileName)) {
-            stagingArea.addition.remove(newBlob.name);
+        /* create new blobs in parallel, track them and add to staging area */
+        stagingArea.addAll(Index.get().add(newFiles));
+    }
+
+    /**
+     * Return paths of plain files in CWD matching the path: a file, a directory (files under it), "."
+     * for all files, or a glob pattern over paths relative to CWD (like *.txt, d/* or **.txt).
+     */
+    private static List<String> matchFiles(String path) {
+        Path normalized = Paths.get(path).normalize();
+        if (normalized.isAbsolute() || normalized.startsWith("..") || normalized.startsWith(".gitlet")) {
+            return List.of(); // Outside of the working tree
+        }
+        String name = normalized.toString().replace(File.separatorChar, '/');
+        File file = join(CWD, name);
+        if (file.isFile()) {
+            return List.of(name);
         }
+        List<String> result = new ArrayList<>();
+        if (file.isDirectory()) {
+            String prefix = name.isEmpty() ? "" : name + "/";
+            DirList.walk(file).iterate((child) -> result.add(prefix + child));
+        } else if (name.matches(".*[*?\\[{].*")) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + name);
+            DirList.walk(CWD).iterate((child) -> {
+                if (matcher.matches(Paths.get(child))) {
+                    result.add(child);
+                }
+            });
+        }
+        return result;
     }
 
     static void doCommitCommand(String message, Date timeStamp) {
         /* Check message */
         if (message.length() == 0) {
-            message("Please enter a commit message.");
-            System.exit(0);
+            throw error("Please enter a commit message.");
         }
 
         /* Make Commit */
         if (stagingArea.addition.isEmpty() && stagingArea.removal.isEmpty()) {
-            message("No changes added to the commit.");
-            System.exit(0);
+            throw error("No changes added to the commit.");
         } else {
             Head.makeCommit(message, timeStamp, null);
         }
@@ -99,53 +196,73 @@ public class Repository {
 
         /* Un-stage */
         if (isStagedForAddition.judge(fileName)) {
-            stagingArea.addition.remove(fileName);
+            stagingArea.unstage(fileName);
             tag = true;
         }
 
         if (isTracked.judge(fileName)) {
-            stagingArea.removal.add(fileName); // Staging for removal
-            restrictedDelete(join(CWD, fileName)); // Remove file in CWD
+            stagingArea.remove(fileName); // Staging for removal
+            deleteInCWD(fileName); // Remove file in CWD
             tag = true;
         }
 
         if (!tag) {
-            message("No reason to remove the file.");
-            System.exit(0);
+            throw error("No reason to remove the file.");
         }
     }
 
-    static void doLogCommand() {
-        HEAD.log();
+    static void doLogCommand(int limit, long since) {
+        HEAD.log(limit, since);
     }
 
-    static void doGlobalLogCommand() {
+    /**
+     * Display all commits, at most limit of them, skipping those older than since (milliseconds).
+     * Unlike log, this cannot stop at the first commit older than since: commits are in the order
+     * they are added to the commit-graph, and fetched commits may be older than those made before
+     * them. Skipped commits only cost a look at their time stamp in the commit-graph.
+     */
+    static void doGlobalLogCommand(int limit, long since) {
+        CommitGraph graph = CommitGraph.get(GITLET_DIR.getPath());
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+        int count = 0;
         for (String commitID : getAllCommits()) {
-            System.out.println(Commit.get(commitID));
+            if (count >= limit) {
+                break;
+            }
+            if (graph.timeStamp(graph.position(commitID)) >= since) {
+                out.println(Commit.get(commitID));
+                count += 1;
+            }
         }
+        out.flush();
     }
 
-    static void doFindCommand(String commitMessage) {
-        boolean isFound = false;
-        for (String commitID : getAllCommits()) {
-            if (Commit.get(commitID).message.equals(commitMessage)) {
-                System.out.println(commitID);
-                isFound = true;
-            }
+    /** Print commits by message: the whole message (mode null), all its words ("--token") or a substring ("--substring"). */
+    static void doFindCommand(String mode, String commitMessage) {
+        if (mode != null && !mode.equals("--token") && !mode.equals("--substring")) {
+            throw error("Incorrect operands.");
+        }
+        MessageIndex index = MessageIndex.get();
+        List<String> found;
+        if (mode == null) {
+            found = index.findMessage(commitMessage);
+        } else if (mode.equals("--token")) {
+            found = index.findTokens(commitMessage);
+        } else {
+            found = index.findSubstring(commitMessage);
         }
 
-        if (!isFound) {
+        if (found.isEmpty()) {
             message("Found no commit with that message.");
         }
+        for (String commitID : found) {
+            System.out.println(commitID);
+        }
     }
 
-    /** Return a Set containing all commitIDs. */
-    static Set<String> getAllCommits() {
-        Set<String> commitIDs = new TreeSet<>();
-        for (String commitID : gitTree.leafs) {
-            Commit.getParents(Commit.get(commitID), commitIDs);
-        }
-        return commitIDs;
+    /** Return all commitIDs (those reachable from leaves of the git tree) in the order they are made. */
+    static List<String> getAllCommits() {
+        return Reachability.get(GITLET_DIR.getPath()).all(gitTree.leafs);
     }
 
     static void doStatusCommand() {
@@ -170,21 +287,33 @@ public class Repository {
         }
         System.out.println();
 
+        /* Files in CWD and SHA-1 of staged or tracked ones, from the watcher if the daemon watches CWD */
+        Map<String, String> commitFiles = Commit.get(HEAD.headCommit).files();
+        Set<String> fileNames = new TreeSet<>(stagingArea.addition.keySet());
+        fileNames.addAll(commitFiles.keySet());
+        Watcher watcher = Watcher.sync();
+        Set<String> cwdNames = watcher == null ? new TreeSet<>(Arrays.asList(DirList.walk(CWD).names))
+                : watcher.fileNames();
+        Map<String, String> hashes = watcher == null ? Index.get().hash(fileNames) : watcher.hash(fileNames);
+
         /* Modifications Not Staged For Commit */
         System.out.println("=== Modifications Not Staged For Commit ===");
 
-        for (String stagedFileName: stagingArea.addition.keySet()) {
-            if (!isExisted.judge(stagedFileName)) {
+        for (Map.Entry<String, String> staged : stagingArea.addition.entrySet()) {
+            String stagedFileName = staged.getKey();
+            if (!cwdNames.contains(stagedFileName)) {
                 System.out.println(stagedFileName + " (deleted)");
-            } else if (!isSameAsStaging.judge(stagedFileName)) {
+            } else if (!isSame(stagedFileName, hashes.get(stagedFileName), staged.getValue())) {
                 System.out.println(stagedFileName + " (modified)");
             }
         }
 
-        for (String commitFileName : Commit.get(HEAD.headCommit).files.keySet()) {
-            if (!isStagedForRemoval.judge(commitFileName) && !isExisted.judge(commitFileName)) {
+        for (Map.Entry<String, String> tracked : commitFiles.entrySet()) {
+            String commitFileName = tracked.getKey();
+            if (!isStagedForRemoval.judge(commitFileName) && !cwdNames.contains(commitFileName)) {
                 System.out.println(commitFileName + " (deleted)");
-            } else if (!isSameAsCurrentCommit.judge(commitFileName) && !isStaged.judge(commitFileName)) {
+            } else if (cwdNames.contains(commitFileName) && !isStaged.judge(commitFileName)
+                    && !isSame(commitFileName, hashes.get(commitFileName), tracked.getValue())) {
                 System.out.println(commitFileName + " (modified)");
             }
         }
@@ -193,31 +322,82 @@ public class Repository {
 
         /* Untracked Files */
         System.out.println("=== Untracked Files ===");
-        DirList untrackedFileNames = new DirList(CWD, (dir, name) -> isUntracked.judge(name));
-        untrackedFileNames.iterate();
+        List<String> untrackedFileNames = new ArrayList<>();
+        for (String fileName : cwdNames) {
+            if (!isStagedForAddition.judge(fileName) && !commitFiles.containsKey(fileName)) {
+                untrackedFileNames.add(fileName);
+                System.out.println(fileName);
+            }
+        }
         System.out.println();
+
+        /* Renamed Files (only if enabled and any) */
+        if (!Config.getBoolean(Config.STATUS_RENAMES, false)) {
+            return;
+        }
+        Map<String, String> renames = detectRenamesInCWD(untrackedFileNames);
+        if (!renames.isEmpty()) {
+            System.out.println("=== Renamed Files ===");
+            renames.forEach((oldName, newName) -> System.out.println(oldName + " -> " + newName));
+            System.out.println();
+        }
+    }
+
+    /** Return whether file in CWD with given SHA-1 (null if not known) has the contents of blob. */
+    private static boolean isSame(String fileName, String fileHash, String blobHash) {
+        return blobHash != null && (blobHash.equals(fileHash) || Blob.isSame(fileName, blobHash));
+    }
+
+    /**
+     * Return renames from the current commit: tracked files removed or deleted in CWD, to
+     * files staged for addition which are not tracked, or untracked files.
+     */
+    private static Map<String, String> detectRenamesInCWD(List<String> untrackedFileNames) {
+        Map<String, String> deleted = new TreeMap<>();
+        Commit.get(HEAD.headCommit).files().forEach((fileName, blob) -> {
+            if (isStagedForRemoval.judge(fileName) || !isExisted.judge(fileName)) {
+                deleted.put(fileName, blob);
+            }
+        });
+        if (deleted.isEmpty()) {
+            return deleted;
+        }
+
+        Map<String, String> added = new TreeMap<>();
+        stagingArea.addition.forEach((fileName, blob) -> {
+            if (!isTracked.judge(fileName)) {
+                added.put(fileName, blob);
+            }
+        });
+        Map<String, File> untracked = new HashMap<>(); // Map SHA-1 to an untracked file
+        Index.get().hash(untrackedFileNames).forEach((fileName, blob) -> {
+            if (blob != null) {
+                added.put(fileName, blob);
+                untracked.put(blob, join(CWD, fileName));
+            }
+        });
+        return Renames.detect(deleted, added, (hash) -> untracked.containsKey(hash)
+                ? readContents(untracked.get(hash)) : Blob.get(hash).contents);
     }
 
     static void checkoutFile(String fileName) {
-        replaceFileInCWD(fileName, Commit.get(HEAD.headCommit).files.get(fileName));
-        stagingArea.addition.remove(fileName); // Un-stage
+        replaceFileInCWD(fileName, Commit.get(HEAD.headCommit).files().get(fileName));
+        stagingArea.unstage(fileName);
     }
 
     static void checkoutCommit(String commitID, String fileName) {
         Commit commit = Commit.get(commitID);
-        replaceFileInCWD(fileName, commit.files.get(fileName));
-        stagingArea.addition.remove(fileName); // Un-stage
+        replaceFileInCWD(fileName, commit.files().get(fileName));
+        stagingArea.unstage(fileName);
     }
 
     static void checkoutBranch(String branchName) {
         Head branch = Head.get(branchName);
 
         if (branch == null) {
-            message("No such branch exists.");
-            System.exit(0);
+            throw error("No such branch exists.");
         } else if (branchName.equals(HEAD.name)) {
-            message("No need to checkout the current branch.");
-            System.exit(0);
+            throw error("No need to checkout the current branch.");
         }
 
         replaceAllInCWD(branch.headCommit);
@@ -225,9 +405,8 @@ public class Repository {
     }
 
     static void doBranchCommand(String branchName) {
-        if (join(HEADS_DIR, branchName).exists()) {
-            message("A branch with that name already exists.");
-            System.exit(0);
+        if (Journal.read(Head.refFile(branchName)) != null) {
+            throw error("A branch with that name already exists.");
         }
 
         Head newHead = new Head(branchName);
@@ -238,40 +417,34 @@ public class Repository {
         Head head = Head.get(branchName);
 
         if (head == null) {
-            message("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         } else if (HEAD.name.equals(branchName)) {
-            message("Cannot remove the current branch.");
-            System.exit(0);
+            throw error("Cannot remove the current branch.");
         }
 
-        join(HEADS_DIR, branchName).delete(); // Remove branch reference
+        removeRef(Head.refFile(branchName)); // Remove branch reference
     }
 
     static void doResetCommand(String comminID) {
         Commit commit = Commit.get(comminID);
         if (commit == null) {
-            message("No commit with that id exists.");
-            System.exit(0);
+            throw error("No commit with that id exists.");
         }
 
-        replaceAllInCWD(comminID);
-        HEAD.updateHeadCommit(comminID);
+        replaceAllInCWD(commit.id);
+        HEAD.updateHeadCommit(commit.id); // Full SHA-1, since the given one may be abbreviated
     }
 
     static void doMergeCommand(String givenBranchName) {
         if (!stagingArea.addition.isEmpty() || !stagingArea.removal.isEmpty()) {
-            message("You have uncommitted changes.");
-            System.exit(0);
+            throw error("You have uncommitted changes.");
         } else if (HEAD.name.equals(givenBranchName)) {
-            message("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw error("Cannot merge a branch with itself.");
         }
 
         Head givenBranch = Head.get(givenBranchName);
         if (givenBranch == null) {
-            message("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
 
         String splitPoint = Head.getSplitPoint(givenBranchName);
@@ -284,9 +457,35 @@ public class Repository {
             return;
         }
 
-        Map<String, String> splitFiles = Commit.get(splitPoint).files;
-        Map<String, String> currentFiles = Commit.get(HEAD.headCommit).files;
-        Map<String, String> givenFiles = Commit.get(givenBranch.headCommit).files;
+        Map<String, String> splitFiles = new TreeMap<>(Commit.get(splitPoint).files());
+        Map<String, String> currentFiles = new TreeMap<>(Commit.get(HEAD.headCommit).files());
+        Map<String, String> givenFiles = new TreeMap<>(Commit.get(givenBranch.headCommit).files());
+
+        /* Follow files renamed in one branch, so that changes of the other branch apply to the new name */
+        Map<String, String> currentRenames = detectRenames(splitFiles, currentFiles);
+        Map<String, String> givenRenames = detectRenames(splitFiles, givenFiles);
+        for (Map.Entry<String, String> rename : currentRenames.entrySet()) {
+            String oldName = rename.getKey();
+            String newName = rename.getValue();
+            if (newName.equals(givenRenames.get(oldName))) {
+                splitFiles.put(newName, splitFiles.remove(oldName));
+            } else if (!givenRenames.containsKey(oldName) && givenFiles.containsKey(oldName)
+                    && !givenFiles.containsKey(newName)) {
+                splitFiles.put(newName, splitFiles.remove(oldName));
+                givenFiles.put(newName, givenFiles.remove(oldName));
+            }
+        }
+        Map<String, String> renamedAway = new TreeMap<>(); // Renamed in given branch only
+        for (Map.Entry<String, String> rename : givenRenames.entrySet()) {
+            String oldName = rename.getKey();
+            String newName = rename.getValue();
+            if (!currentRenames.containsKey(oldName) && currentFiles.containsKey(oldName)
+                    && !currentFiles.containsKey(newName)) {
+                splitFiles.put(newName, splitFiles.remove(oldName));
+                currentFiles.put(newName, currentFiles.remove(oldName));
+                renamedAway.put(oldName, newName);
+            }
+        }
 
         Map<String, String> files = new TreeMap<>();
         files.putAll(splitFiles);
@@ -321,18 +520,29 @@ public class Repository {
             }
         }
 
+        for (Map.Entry<String, String> rename : renamedAway.entrySet()) {
+            String operation = files.get(rename.getValue());
+            if (!operation.equals("replace") && !operation.equals("conflict")) {
+                addToBeModified(files, rename.getValue(), "move"); // Keep contents of current branch
+            }
+            files.put(rename.getKey(), "remove");
+        }
+
         /* Do operations */
         for (String fileName : files.keySet()) {
             switch (files.get(fileName)) {
                 case "remove" -> doRemoveCommand(fileName);
-                case "conflict" -> {
-                    mergeConflict(fileName, currentFiles.get(fileName), givenFiles.get(fileName));
-                    isConflict = true;
-                }
+                case "conflict" -> isConflict |= mergeConflict(fileName, splitFiles.get(fileName),
+                        currentFiles.get(fileName), givenFiles.get(fileName));
                 case "replace" -> {
                     String givenBlob = givenFiles.get(fileName);
                     replaceFileInCWD(fileName, givenBlob);
-                    stagingArea.addition.put(fileName, givenBlob); // Stage
+                    stagingArea.add(fileName, givenBlob); // Stage
+                }
+                case "move" -> {
+                    String currentBlob = currentFiles.get(fileName);
+                    replaceFileInCWD(fileName, currentBlob);
+                    stagingArea.add(fileName, currentBlob); // Stage
                 }
             }
         }
@@ -341,15 +551,227 @@ public class Repository {
         Head.makeCommit(message, new Date(), Head.get(givenBranchName).headCommit);
     }
 
+    static void doAddRemoteCommand(String remoteName, String path) {
+        Map<String, String> remotes = Remote.list();
+        if (remotes.containsKey(remoteName)) {
+            throw error("A remote with that name already exists.");
+        }
+        remotes.put(remoteName, path);
+        Remote.save(remotes);
+    }
+
+    static void doRemoveRemoteCommand(String remoteName) {
+        Map<String, String> remotes = Remote.list();
+        if (remotes.remove(remoteName) == null) {
+            throw error("A remote with that name does not exist.");
+        }
+        Remote.save(remotes);
+
+        /* Remove branches fetched from the remote */
+        File remoteDir = join(REMOTES_DIR, remoteName);
+        new DirList(remoteDir).iterate((branchName) -> removeRef(join(remoteDir, branchName)));
+        remoteDir.delete();
+    }
+
+    /** Copy commits of the remote branch missing here, and point branch "REMOTE/BRANCH" to its head. */
+    static void doFetchCommand(String remoteName, String branchName) {
+        String remoteDir = Remote.gitletDir(remoteName, false);
+        String headCommit = Remote.headCommit(remoteDir, branchName);
+        if (headCommit == null) {
+            throw error("That remote does not have that branch.");
+        }
+
+        /* Like push, only commits not reachable from the branch fetched last time may be missing */
+        String fetchedName = remoteName + "/" + branchName;
+        Head branch = Head.get(fetchedName);
+        Reachability reachability = Reachability.get(remoteDir);
+        List<String> newCommits;
+        if (branch != null && reachability.isAncestor(branch.headCommit, headCommit)) {
+            newCommits = reachability.range(headCommit, branch.headCommit);
+            newCommits.removeIf((id) -> containsObject(id, GITLET_DIR.getPath()));
+        } else {
+            newCommits = Remote.missingCommits(headCommit, remoteDir, GITLET_DIR.getPath());
+        }
+        Remote.copyObjects(newCommits, headCommit, remoteDir, GITLET_DIR.getPath());
+        Remote.addLeaves(gitTree, newCommits, GITLET_DIR.getPath());
+        join(REMOTES_DIR, remoteName).mkdirs();
+        if (branch == null) {
+            branch = new Head(fetchedName);
+        }
+        branch.updateHeadCommit(headCommit);
+        if (HEAD.name.equals(fetchedName)) {
+            HEAD = branch;
+        }
+    }
+
+    /** Copy commits of the current branch missing in the remote, and point the remote branch to its head. */
+    static void doPushCommand(String remoteName, String branchName) {
+        String remoteDir = Remote.gitletDir(remoteName, true);
+        String remoteCommit = Remote.headCommit(remoteDir, branchName);
+        Reachability reachability = Reachability.get(GITLET_DIR.getPath());
+        if (remoteCommit != null && !reachability.isAncestor(remoteCommit, HEAD.headCommit)) {
+            throw error("Please pull down remote changes before pushing.");
+        }
+
+        /* The remote has history of its branch, so only commits not reachable from it may be missing */
+        List<String> newCommits;
+        if (remoteCommit == null) {
+            newCommits = Remote.missingCommits(HEAD.headCommit, GITLET_DIR.getPath(), remoteDir);
+        } else {
+            newCommits = reachability.range(HEAD.headCommit, remoteCommit);
+            newCommits.removeIf((id) -> containsObject(id, remoteDir));
+        }
+        Remote.copyObjects(newCommits, HEAD.headCommit, GITLET_DIR.getPath(), remoteDir);
+        Remote.updateBranch(remoteDir, branchName, HEAD.headCommit, newCommits);
+    }
+
+    static void doPullCommand(String remoteName, String branchName) {
+        doFetchCommand(remoteName, branchName);
+        doMergeCommand(remoteName + "/" + branchName);
+    }
+
+    /**
+     * Print differences of files between two commits in unified format. Without the second commit,
+     * the first one is compared with files in CWD; without any commit, the current commit is. If
+     * fileName is not null, only that file is compared.
+     */
+    static void doDiffCommand(String fromCommitID, String toCommitID, String fileName) {
+        Map<String, String> from = Commit.get(fromCommitID == null ? HEAD.headCommit : fromCommitID).files();
+        Map<String, String> to;
+        if (toCommitID != null) {
+            to = Commit.get(toCommitID).files();
+        } else {
+            /* Tracked files in CWD */
+            Set<String> tracked = new TreeSet<>(from.keySet());
+            tracked.addAll(stagingArea.addition.keySet());
+            to = new TreeMap<>(Index.get().hash(tracked));
+            to.values().removeIf(Objects::isNull);
+        }
+
+        Set<String> fileNames = new TreeSet<>(from.keySet());
+        fileNames.addAll(to.keySet());
+        if (fileName != null) {
+            fileNames.retainAll(Set.of(fileName));
+        }
+        for (String name : fileNames) {
+            String before = from.get(name);
+            String after = to.get(name);
+            if (Objects.equals(before, after)) {
+                continue;
+            }
+            byte[] beforeContents = before == null ? null : Blob.get(before).contents;
+            byte[] afterContents = after == null ? null : toCommitID == null
+                    ? readContents(join(CWD, name)) : Blob.get(after).contents;
+            if (!Arrays.equals(beforeContents, afterContents)) { // Blobs of old repositories are hashed differently
+                Diff.printUnified(name, beforeContents, afterContents, System.out);
+            }
+        }
+    }
+
+    /** Pack loose blobs and commits, so that large repositories do not need one file per object. */
+    static void doGcCommand() {
+        packObjects(GITLET_DIR.getPath());
+
+        /* Save reachability bitmaps of branches, and of leaves for all commits */
+        Set<String> tips = new TreeSet<>(gitTree.leafs);
+        for (File refFile : branchRefFiles(GITLET_DIR.getPath())) {
+            tips.add(loadObject(Journal.read(refFile), GITLET_DIR.getPath(), Head.class).headCommit);
+        }
+        Reachability.write(GITLET_DIR.getPath(), tips);
+    }
+
+    /**
+     * Convert objects of old repositories (serialized Java objects) to the compact encoding. SHA-1
+     * of converted commits change, so parents, branches, HEAD, staging area and git tree are remapped.
+     */
+    static void doMigrateCommand() {
+        String gitletDir = GITLET_DIR.getPath();
+        Map<String, String> remap = new HashMap<>(); // Map old SHA-1 of commits and blobs to new one
+
+        /* Parents come before children, so they are converted first */
+        for (String commitID : new ArrayList<>(getAllCommits())) {
+            Commit commit = Commit.load(commitID, gitletDir);
+            Map<String, String> files = new TreeMap<>();
+            for (Map.Entry<String, String> file : commit.files().entrySet()) {
+                files.put(file.getKey(), remap.computeIfAbsent(file.getValue(), Blob::migrate));
+            }
+            String[] parents = new String[2];
+            for (int i = 0; i < parents.length; i += 1) {
+                parents[i] = commit.parents[i] == null ? null : remap.get(commit.parents[i]);
+            }
+            Commit migrated = new Commit(commit.message, commit.timeStamp, parents, Tree.update(null, files, gitletDir));
+            remap.put(commitID, saveObject(migrated, gitletDir));
+        }
+
+        /* Remap refs (HEAD, staging area and git tree are saved on exit) */
+        for (String branchName : new DirList(HEADS_DIR).names) {
+            Head branch = Head.get(branchName);
+            branch.updateHeadCommit(remap.get(branch.headCommit));
+        }
+        HEAD = Head.get(HEAD.name);
+        for (Map.Entry<String, String> file : new TreeMap<>(stagingArea.addition).entrySet()) {
+            stagingArea.add(file.getKey(), remap.computeIfAbsent(file.getValue(), Blob::migrate));
+        }
+        for (String leaf : new ArrayList<>(gitTree.leafs)) {
+            gitTree.remove(leaf);
+            gitTree.add(remap.get(leaf));
+        }
+
+        /* Pack objects without old ones (which also removes stale refs), and rebuild commit-graph with new SHA-1 */
+        Set<String> dropped = new TreeSet<>();
+        for (Map.Entry<String, String> entry : remap.entrySet()) {
+            if (!entry.getKey().equals(entry.getValue())) {
+                dropped.add(entry.getKey());
+            }
+        }
+        if (dropped.isEmpty()) {
+            return; // Already migrated
+        }
+        packObjects(gitletDir, dropped);
+        join(GITLET_DIR, CommitGraph.FILE_NAME).delete();
+        join(GITLET_DIR, Reachability.FILE_NAME).delete(); // Over positions in the old commit-graph
+        join(GITLET_DIR, MessageIndex.FILE_NAME).delete();
+        MessageIndex.invalidate();
+        CommitGraph.invalidate(gitletDir);
+        Reachability.invalidate(gitletDir);
+    }
+
+    /** Return renames (old name to new name) from files before to files after. */
+    private static Map<String, String> detectRenames(Map<String, String> before, Map<String, String> after) {
+        Map<String, String> deleted = new TreeMap<>(before);
+        deleted.keySet().removeAll(after.keySet());
+        Map<String, String> added = new TreeMap<>(after);
+        added.keySet().removeAll(before.keySet());
+        return Renames.detect(deleted, added, (hash) -> Blob.get(hash).contents);
+    }
+
     private static void addToBeModified(Map<String, String> files, String fileName, String operation) {
         if (isUntracked.judge(fileName)) {
-            message("There is an untracked file in the way; delete it, or add and commit it first.");
-            System.exit(0);
+            throw error("There is an untracked file in the way; delete it, or add and commit it first.");
         }
         files.put(fileName, operation);
     }
 
-    private static void mergeConflict(String fileName, String currentBlob, String givenBlob) {
+    /**
+     * Merge a file changed in both branches and stage it. Text files in both branches are merged
+     * line by line against the split point, so only overlapping changes conflict; otherwise the
+     * whole file conflicts. Return whether there is a conflict.
+     */
+    private static boolean mergeConflict(String fileName, String splitBlob, String currentBlob, String givenBlob) {
+        if (currentBlob != null && givenBlob != null) {
+            byte[] base = splitBlob == null ? new byte[0] : Blob.get(splitBlob).contents;
+            byte[] current = Blob.get(currentBlob).contents;
+            byte[] given = Blob.get(givenBlob).contents;
+            if (!Diff.isBinary(base) && !Diff.isBinary(current) && !Diff.isBinary(given)) {
+                Diff.Merged merged = Diff.merge(base, current, given);
+                if (merged.conflict) {
+                    message("Encountered a merge conflict.");
+                }
+                writeContents(createInCWD(fileName), (Object) merged.contents);
+                doAddCommand(fileName); // Stage
+                return merged.conflict;
+            }
+        }
         message("Encountered a merge conflict.");
 
         StringBuilder stringBuilder = new StringBuilder("<<<<<<< HEAD\n");
@@ -364,8 +786,9 @@ public class Repository {
 
         stringBuilder.append(">>>>>>>\n"); // Must add \n at the end!!!
 
-        writeContents(join(CWD, fileName), stringBuilder.toString());
+        writeContents(createInCWD(fileName), stringBuilder.toString());
         doAddCommand(fileName); // Stage
+        return true;
     }
 
 }
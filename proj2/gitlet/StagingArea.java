@@ -10,15 +10,89 @@ import static gitlet.Repository.*;
 import static gitlet.FileSystem.*;
 import static gitlet.Utils.*;
 
-class StagingArea implements Serializable {
+class StagingArea implements Serializable, GitletObject {
+    /** Same as serialized staging areas of old repositories. */
+    private static final long serialVersionUID = -8873172488640276714L;
+    /** Type of staging area objects. */
+    static final String TYPE = "staging";
+
     /** Map file name to SHA-1 */
     Map<String, String> addition = new TreeMap<>();
     /** Map file name to SHA-1 */
     Set<String> removal = new TreeSet<>();
+    /** Whether changed since loaded or saved. Change files through methods below, so that it is kept. */
+    transient boolean dirty;
+
+    /** Stage file for addition. */
+    void add(String fileName, String hash) {
+        if (!hash.equals(addition.put(fileName, hash))) {
+            dirty = true;
+        }
+    }
+
+    /** Stage files (map file name to SHA-1) for addition. */
+    void addAll(Map<String, String> files) {
+        files.forEach(this::add);
+    }
+
+    /** Un-stage file for addition. */
+    void unstage(String fileName) {
+        if (addition.remove(fileName) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Stage file for removal. */
+    void remove(String fileName) {
+        if (removal.add(fileName)) {
+            dirty = true;
+        }
+    }
+
+    /** Un-stage file for removal. */
+    void restore(String fileName) {
+        if (removal.remove(fileName)) {
+            dirty = true;
+        }
+    }
+
+    /** Un-stage all files. */
+    void clear() {
+        if (!addition.isEmpty() || !removal.isEmpty()) {
+            addition.clear();
+            removal.clear();
+            dirty = true;
+        }
+    }
 
     void save() {
-        deleteOldRef(STAGING_FILE);
-        saveObject(this, GITLET_DIR.getPath());
-        writeContents(STAGING_FILE, getHash(this));
+        updateRef(STAGING_FILE, this);
+        dirty = false;
+    }
+
+    /** Return staging area stored as contents. */
+    static StagingArea parse(byte[] contents) {
+        Encoding.Reader in = new Encoding.Reader(contents, TYPE);
+        StagingArea stagingArea = new StagingArea();
+        for (int i = in.readCount(); i > 0; i -= 1) {
+            stagingArea.addition.put(in.readString(), in.readHash());
+        }
+        for (int i = in.readCount(); i > 0; i -= 1) {
+            stagingArea.removal.add(in.readString());
+        }
+        return stagingArea;
+    }
+
+    @Override
+    public byte[] toContents() {
+        Encoding.Writer out = new Encoding.Writer(TYPE).writeVarint(addition.size());
+        for (Map.Entry<String, String> entry : addition.entrySet()) {
+            out.writeString(entry.getKey()).writeHash(entry.getValue());
+        }
+        out.writeVarint(removal.size());
+        for (String fileName : removal) {
+            out.writeString(fileName);
+        }
+        return out.toContents();
     }
 }
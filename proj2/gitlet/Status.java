@@ -2,7 +2,6 @@ package gitlet;
 
 import static gitlet.Repository.*;
 import static gitlet.Utils.join;
-import static gitlet.FileSystem.*;
 
 interface Status {
     /** Determine whether file in CWD satisfies the status. */
@@ -18,14 +17,14 @@ interface Status {
     /** Existed in CWD. */
     Status isExisted = (fileName) -> join(CWD, fileName).exists();
     /** Tracked in current commit. */
-    Status isTracked = (fileName) -> Commit.get(HEAD.headCommit).files.containsKey(fileName);
+    Status isTracked = (fileName) -> Commit.get(HEAD.headCommit).files().containsKey(fileName);
     /** Present in the working directory but neither staged for addition nor tracked. */
     Status isUntracked = (fileName) -> isExisted.judge(fileName) &&
             !isStagedForAddition.judge(fileName) && !isTracked.judge(fileName);
     /** No change from staging area. */
     Status isSameAsStaging = (fileName) -> isExisted.judge(fileName) &&
-            stagingArea.addition.containsValue(getHash(new Blob(join(CWD, fileName))));
+            Blob.isSame(fileName, stagingArea.addition.get(fileName));
     /** No change from current commit. */
     Status isSameAsCurrentCommit = (fileName) -> isExisted.judge(fileName) &&
-            Commit.get(HEAD.headCommit).files.containsValue(getHash(new Blob(join(CWD, fileName))));
+            Blob.isSame(fileName, Commit.get(HEAD.headCommit).files().get(fileName));
 }
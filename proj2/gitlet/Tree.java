@@ -0,0 +1,249 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static gitlet.Utils.*;
+import static gitlet.FileSystem.*;
+
+/**
+ * A directory of a commit, inspired by git's tree objects. A tree is stored as
+ * "tree LENGTH\0" followed by entries "MODE NAME\0SHA-1" (SHA-1 in 20 bytes) sorted by
+ * name, where MODE tells whether the entry is a file (blob) or a directory (tree).
+ *
+ * Trees are content-addressed, so commits share every directory that did not change,
+ * and a new commit only writes the trees along changed paths.
+ */
+final class Tree implements GitletObject {
+    /** Type of tree objects. */
+    static final String TYPE = "tree";
+    /** Mode of entries that are files. */
+    static final String FILE_MODE = "100644";
+    /** Mode of entries that are directories. */
+    static final String DIRECTORY_MODE = "40000";
+
+    /** Map entry name to SHA-1 of blob (file) or tree (directory). */
+    final Map<String, String> entries = new TreeMap<>();
+    /** Names of entries that are directories. */
+    final Set<String> directories = new TreeSet<>();
+
+    /** Return tree with given SHA-1 in OBJECTS_DIR (local or remote). The tree is shared, so do not modify it. */
+    static Tree get(String hash, String gitletDir) {
+        Tree tree = ObjectCache.load(hash, Tree.class, (h) -> {
+            byte[] contents = readObjectContents(h, gitletDir);
+            return contents == null ? null : parse(contents);
+        }, (t) -> 64 + ObjectCache.weightOf(t.entries));
+        if (tree == null) {
+            throw error("Tree %s does not exist.", hash);
+        }
+        return tree;
+    }
+
+    /** Return tree stored as contents. */
+    static Tree parse(byte[] contents) {
+        Tree tree = new Tree();
+        int i = 0;
+        while (contents[i] != 0) {
+            i += 1; // Skip header
+        }
+        i += 1;
+        while (i < contents.length) {
+            int space = i;
+            while (contents[space] != ' ') {
+                space += 1;
+            }
+            int end = space + 1;
+            while (contents[end] != 0) {
+                end += 1;
+            }
+            String mode = new String(contents, i, space - i, StandardCharsets.UTF_8);
+            String name = new String(contents, space + 1, end - space - 1, StandardCharsets.UTF_8);
+            tree.entries.put(name, toHex(Arrays.copyOfRange(contents, end + 1, end + 1 + UID_LENGTH / 2)));
+            if (mode.equals(DIRECTORY_MODE)) {
+                tree.directories.add(name);
+            }
+            i = end + 1 + UID_LENGTH / 2;
+        }
+        return tree;
+    }
+
+    @Override
+    public byte[] toContents() {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            String mode = directories.contains(entry.getKey()) ? DIRECTORY_MODE : FILE_MODE;
+            body.writeBytes((mode + " " + entry.getKey() + "\0").getBytes(StandardCharsets.UTF_8));
+            body.writeBytes(toBytes(entry.getValue()));
+        }
+
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        contents.writeBytes((TYPE + " " + body.size() + "\0").getBytes(StandardCharsets.UTF_8));
+        contents.writeBytes(body.toByteArray());
+        return contents.toByteArray();
+    }
+
+    /**
+     * Return SHA-1 of the tree obtained by applying changes (map path to SHA-1 of blob, or null
+     * for removal) to tree with given SHA-1 (null for empty tree). Directories in paths are
+     * separated by "/". Only trees along changed paths are written in OBJECTS_DIR (local or remote).
+     */
+    static String update(String hash, Map<String, String> changes, String gitletDir) {
+        String result = apply(hash, changes, gitletDir);
+        return result == null ? saveObject(new Tree(), gitletDir) : result;
+    }
+
+    /** Same as update, but return null if the result is empty. */
+    private static String apply(String hash, Map<String, String> changes, String gitletDir) {
+        if (changes.isEmpty()) {
+            return hash;
+        }
+        Tree tree = new Tree();
+        if (hash != null) {
+            Tree old = get(hash, gitletDir);
+            tree.entries.putAll(old.entries);
+            tree.directories.addAll(old.directories);
+        }
+
+        /* Group changes in subdirectories by directory name */
+        Map<String, Map<String, String>> subChanges = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subChanges.computeIfAbsent(path.substring(0, slash), (name) -> new TreeMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                tree.entries.remove(path);
+                tree.directories.remove(path);
+            } else {
+                tree.entries.put(path, change.getValue());
+                tree.directories.remove(path);
+            }
+        }
+
+        for (Map.Entry<String, Map<String, String>> subChange : subChanges.entrySet()) {
+            String name = subChange.getKey();
+            String subtree = tree.directories.contains(name) ? tree.entries.get(name) : null;
+            String newSubtree = apply(subtree, subChange.getValue(), gitletDir);
+            if (newSubtree == null) {
+                tree.entries.remove(name);
+                tree.directories.remove(name);
+            } else {
+                tree.entries.put(name, newSubtree);
+                tree.directories.add(name);
+            }
+        }
+
+        if (tree.entries.isEmpty()) {
+            return null;
+        }
+        return saveObject(tree, gitletDir);
+    }
+
+    /**
+     * Return map of path to SHA-1 of blob in tree to (or null if absent) of files which differ
+     * between trees from and to (both may be null for empty trees). Directories with the same
+     * SHA-1 are skipped without being loaded.
+     */
+    static Map<String, String> diff(String from, String to, String gitletDir) {
+        Map<String, String> changes = new TreeMap<>();
+        diff(from, to, "", gitletDir, changes);
+        return changes;
+    }
+
+    private static void diff(String from, String to, String prefix, String gitletDir, Map<String, String> changes) {
+        if (Objects.equals(from, to)) {
+            return;
+        }
+        Tree fromTree = from == null ? new Tree() : get(from, gitletDir);
+        Tree toTree = to == null ? new Tree() : get(to, gitletDir);
+        Set<String> names = new TreeSet<>(fromTree.entries.keySet());
+        names.addAll(toTree.entries.keySet());
+        for (String name : names) {
+            String fromHash = fromTree.entries.get(name);
+            String toHash = toTree.entries.get(name);
+            boolean fromDirectory = fromTree.directories.contains(name);
+            boolean toDirectory = toTree.directories.contains(name);
+            if (fromDirectory == toDirectory && Objects.equals(fromHash, toHash)) {
+                continue;
+            }
+            /* A file replaced by a directory (or the other way) is removed, then added */
+            diff(fromDirectory ? fromHash : null, toDirectory ? toHash : null, prefix + name + "/", gitletDir, changes);
+            if (fromHash != null && !fromDirectory || toHash != null && !toDirectory) {
+                changes.put(prefix + name, toDirectory ? null : toHash);
+            }
+        }
+    }
+
+    /** Return a read-only map of path to SHA-1 of blob of all files under tree with given SHA-1. */
+    static Map<String, String> files(String hash, String gitletDir) {
+        return new Files(hash, gitletDir);
+    }
+
+    /** A read-only map of path to SHA-1 of blob, which only loads the trees it needs. */
+    private static class Files extends AbstractMap<String, String> {
+        /** SHA-1 of the root tree. */
+        private final String root;
+        /** Gitlet directory (local or remote). */
+        private final String gitletDir;
+        /** Trees already loaded, keyed by SHA-1. */
+        private final Map<String, Tree> loaded = new HashMap<>();
+        /** All files, loaded when the map is iterated. */
+        private Map<String, String> all;
+
+        Files(String root, String gitletDir) {
+            this.root = root;
+            this.gitletDir = gitletDir;
+        }
+
+        private Tree tree(String hash) {
+            return loaded.computeIfAbsent(hash, (h) -> Tree.get(h, gitletDir));
+        }
+
+        @Override
+        public String get(Object key) {
+            if (all != null) {
+                return all.get(key);
+            }
+
+            /* Walk down the path */
+            String[] names = ((String) key).split("/");
+            Tree tree = tree(root);
+            for (int i = 0; i < names.length - 1; i += 1) {
+                if (!tree.directories.contains(names[i])) {
+                    return null;
+                }
+                tree = tree(tree.entries.get(names[i]));
+            }
+            String name = names[names.length - 1];
+            return tree.directories.contains(name) ? null : tree.entries.get(name);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            if (all == null) {
+                Map<String, String> files = new TreeMap<>();
+                walk(root, "", files);
+                all = Collections.unmodifiableMap(files);
+            }
+            return all.entrySet();
+        }
+
+        private void walk(String hash, String prefix, Map<String, String> files) {
+            Tree tree = tree(hash);
+            for (Map.Entry<String, String> entry : tree.entries.entrySet()) {
+                if (tree.directories.contains(entry.getKey())) {
+                    walk(entry.getValue(), prefix + entry.getKey() + "/", files);
+                } else {
+                    files.put(prefix + entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/**
+ * Watcher of CWD for status in the daemon (enabled by status.watch in the config), so that
+ * status neither lists CWD nor stats every file: names and SHA-1 of files are kept from the
+ * last status, and only files with events since then are looked at again.
+ *
+ * Events are delivered asynchronously, so like watchman, the watcher syncs by creating a
+ * cookie file in CWD and reading events until the cookie's own event: every change made
+ * before it has been read by then. If events are lost (overflow) or the cookie does not show
+ * up in time, CWD is scanned again in full. Each directory of CWD is watched on its own, and
+ * directories created or deleted also cause a full scan, which watches new directories.
+ */
+class Watcher {
+    /** Prefix of cookie files, whose events are ignored. */
+    private static final String COOKIE_PREFIX = ".gitlet-cookie-";
+    /** Max time to wait for the event of a cookie, in milliseconds. */
+    private static final long SYNC_TIMEOUT = 2000;
+
+    /** Watcher of the daemon, or null if not watching. */
+    private static Watcher watcher;
+
+    private final WatchService service;
+    /** Map key of each watched directory to its path relative to CWD, with "/" at the end (empty for CWD). */
+    private final Map<WatchKey, String> dirs = new HashMap<>();
+    /** Number of cookies created, to name the next one. */
+    private int cookies = 0;
+    /** Names of plain files in CWD and its subdirectories, or null if CWD needs to be scanned again. */
+    private NavigableSet<String> fileNames;
+    /** Map file name to SHA-1 of file, for files without events since they are hashed. */
+    private final Map<String, String> hashes = new HashMap<>();
+
+    private Watcher() throws IOException {
+        service = FileSystems.getDefault().newWatchService();
+        register(CWD, "");
+    }
+
+    /** Watch directory with given path relative to CWD and its subdirectories (except .gitlet). */
+    private void register(File dir, String prefix) throws IOException {
+        dirs.put(dir.toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), prefix);
+        File[] children = dir.listFiles((parent, name) -> !(prefix.isEmpty() && name.equals(".gitlet")));
+        for (File child : children == null ? new File[0] : children) {
+            if (child.isDirectory()) {
+                register(child, prefix + child.getName() + "/");
+            }
+        }
+    }
+
+    /**
+     * Return watcher of CWD with all changes until now read, or return null if CWD is not
+     * watched (not in the daemon, or not enabled). The watcher is started when first used.
+     */
+    static Watcher sync() {
+        if (!Daemon.isServing() || !Config.getBoolean(Config.STATUS_WATCH, false)) {
+            stop();
+            return null;
+        }
+        if (watcher == null) {
+            try {
+                watcher = new Watcher();
+            } catch (IOException excp) {
+                return null; // Watching is not supported, status scans CWD
+            }
+        }
+        if (!watcher.catchUp()) {
+            stop();
+            return null;
+        }
+        return watcher;
+    }
+
+    /** Stop watching CWD. */
+    static void stop() {
+        if (watcher != null) {
+            try {
+                watcher.service.close();
+            } catch (IOException excp) {
+                // Already closed
+            }
+            watcher = null;
+        }
+    }
+
+    /** Return paths of plain files in CWD and its subdirectories, sorted. Do not modify it. */
+    Set<String> fileNames() {
+        return fileNames;
+    }
+
+    /** Return map of file name to SHA-1 of files in CWD as blobs (or null if not exist). */
+    Map<String, String> hash(Collection<String> names) {
+        Map<String, String> result = new TreeMap<>();
+        List<String> unknown = new ArrayList<>();
+        for (String fileName : names) {
+            if (!fileNames.contains(fileName)) {
+                result.put(fileName, null);
+            } else if (hashes.containsKey(fileName)) {
+                result.put(fileName, hashes.get(fileName));
+            } else {
+                unknown.add(fileName);
+            }
+        }
+        Map<String, String> hashed = Index.get().hash(unknown);
+        hashed.forEach((fileName, hash) -> {
+            if (hash != null) {
+                hashes.put(fileName, hash); // Dropped by the next event of the file
+            }
+        });
+        result.putAll(hashed);
+        return result;
+    }
+
+    /** Read events until the event of a new cookie. Return false if CWD cannot be watched any more. */
+    private boolean catchUp() {
+        String cookie = COOKIE_PREFIX + cookies;
+        cookies += 1;
+        File cookieFile = join(CWD, cookie);
+        Set<String> changed = new HashSet<>();
+        boolean synced = false;
+        try {
+            cookieFile.createNewFile();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SYNC_TIMEOUT);
+            while (!synced) {
+                WatchKey key = service.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (key == null) {
+                    break; // Timed out
+                }
+                String prefix = dirs.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || prefix == null) {
+                        fileNames = null;
+                        continue;
+                    }
+                    String name = prefix + event.context();
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && join(CWD, name).isDirectory()) {
+                        fileNames = null; // Watched after the scan
+                    } else if (name.equals(cookie)) {
+                        synced = true;
+                    } else if (!name.startsWith(COOKIE_PREFIX) && !name.equals(".gitlet")) {
+                        changed.add(name);
+                    }
+                }
+                if (!key.reset()) {
+                    if ("".equals(prefix)) {
+                        return false; // CWD is gone
+                    }
+                    dirs.remove(key);
+                }
+            }
+        } catch (IOException | InterruptedException | ClosedWatchServiceException excp) {
+            return false;
+        } finally {
+            cookieFile.delete();
+        }
+
+        for (String name : changed) {
+            if (fileNames != null && !join(CWD, name).exists()
+                    && !fileNames.subSet(name + "/", name + "0").isEmpty()) { // "0" follows "/"
+                fileNames = null; // Directory deleted
+            }
+        }
+        if (!synced || fileNames == null) { // Scan again
+            try {
+                for (WatchKey key : dirs.keySet()) {
+                    key.cancel();
+                }
+                dirs.clear();
+                register(CWD, "");
+            } catch (IOException excp) {
+                return false;
+            }
+            fileNames = new TreeSet<>(Arrays.asList(DirList.walk(CWD).names));
+            hashes.clear();
+            return true;
+        }
+        for (String name : changed) {
+            hashes.remove(name);
+            if (join(CWD, name).isFile()) {
+                fileNames.add(name);
+            } else if (!join(CWD, name).isDirectory()) {
+                fileNames.remove(name);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,165 @@
+import sys, re
+from subprocess import run, PIPE, STDOUT, TimeoutExpired
+from os.path import abspath, dirname, exists, join
+from getopt import getopt, GetoptError
+from os import getcwd, access, W_OK
+from shutil import rmtree
+from tempfile import mkdtemp
+from threading import Thread, Event, Lock
+
+USAGE = """\
+Usage: python3 stress.py OPTIONS
+
+Run several gitlet processes against the same repository at once, and check
+that no commit or staging entry is lost.  Each of N workers repeatedly creates
+a file of its own, adds it, and commits it; R readers run status and log in a
+loop meanwhile.  A commit may find nothing to commit (another worker committed
+its file first), but every file must end up committed, every successful
+commit must be in the log, and no command may fail otherwise.
+
+   OPTIONS may include
+       --progdir=DIR  Directory or JAR files containing gitlet application
+       --workers=N    Number of concurrent committers (default 4).
+       --commits=K    Number of files each worker adds and commits (default 10).
+       --readers=R    Number of concurrent readers (default 2).
+       --timeout=SEC  Number of seconds allowed to each execution of gitlet
+                      (default 60).
+       --keep         Keep the repository directory.
+"""
+
+def Usage():
+    print(USAGE, file=sys.stderr)
+    sys.exit(1)
+
+def gitlet(*args):
+    """Run gitlet with ARGS in the repository, and return (exit code, output)."""
+    try:
+        result = run(["java", "-cp", prog_dir, "gitlet.Main"] + list(args),
+                     cwd=repo_dir, stdout=PIPE, stderr=STDOUT,
+                     universal_newlines=True, timeout=timeout)
+        return result.returncode, result.stdout
+    except TimeoutExpired:
+        return None, "timed out"
+
+def fail(msg):
+    with lock:
+        errors.append(msg)
+
+def worker(i):
+    for j in range(commits):
+        name = "w{}-{}.txt".format(i, j)
+        with open(join(repo_dir, name), "w") as f:
+            f.write("worker {} file {}\n".format(i, j))
+        code, out = gitlet("add", name)
+        if code != 0 or out:
+            fail("add {}: {} {}".format(name, code, out.strip()))
+            continue
+        message = "worker {} commit {}".format(i, j)
+        code, out = gitlet("commit", message)
+        if code != 0 or out not in ("", "No changes added to the commit.\n"):
+            fail("commit {}: {} {}".format(name, code, out.strip()))
+        elif out == "":
+            with lock:
+                committed.append(message)
+
+def reader():
+    while not stop.is_set():
+        for command in ("status", "log"):
+            code, out = gitlet(command)
+            if code != 0 or "Exception" in out:
+                fail("{}: {} {}".format(command, code, out.strip()))
+
+def section(status, title):
+    """Return lines of section TITLE of STATUS output."""
+    match = re.search(r"=== {} ===\n((?:.+\n)*)".format(re.escape(title)), status)
+    return match.group(1).split() if match else None
+
+def verify():
+    code, log = gitlet("log")
+    if code != 0:
+        fail("final log: {} {}".format(code, log.strip()))
+        return
+    messages = re.findall(r"^Date: .*\n(.*)$", log, re.M)
+    if len(messages) != len(committed) + 1:
+        fail("log has {} commits, expected {}".format(len(messages),
+                                                     len(committed) + 1))
+    for message in committed:
+        if message not in messages:
+            fail("commit lost: {}".format(message))
+
+    code, status = gitlet("status")
+    for title in ("Staged Files", "Removed Files",
+                  "Modifications Not Staged For Commit", "Untracked Files"):
+        lines = section(status, title)
+        if lines is None:
+            fail("final status has no {} section".format(title))
+        elif lines:
+            fail("final status has {}: {}".format(title, ", ".join(lines)))
+
+if __name__ == "__main__":
+    prog_dir = None
+    workers, commits, readers, timeout, keep = 4, 10, 2, 60, False
+    try:
+        opts, args = getopt(sys.argv[1:], '',
+                            ['progdir=', 'workers=', 'commits=', 'readers=',
+                             'timeout=', 'keep'])
+        for opt, val in opts:
+            if opt == "--progdir":
+                prog_dir = abspath(val)
+            elif opt == "--workers":
+                workers = int(val)
+            elif opt == "--commits":
+                commits = int(val)
+            elif opt == "--readers":
+                readers = int(val)
+            elif opt == "--timeout":
+                timeout = int(val)
+            elif opt == "--keep":
+                keep = True
+        if args:
+            Usage()
+        if prog_dir is None:
+            prog_dir = abspath(getcwd())
+            k = 10
+            while k > 0 and access(prog_dir, W_OK):
+                k -= 1
+                if exists(join(prog_dir, 'gitlet', 'Main.class')):
+                    break
+                prog_dir = dirname(prog_dir)
+            else:
+                print("Could not find gitlet.Main.", file=sys.stderr)
+                sys.exit(1)
+    except (GetoptError, ValueError):
+        Usage()
+
+    repo_dir = mkdtemp(prefix="gitlet-stress-")
+    errors, committed = [], []
+    lock, stop = Lock(), Event()
+    try:
+        code, out = gitlet("init")
+        if code != 0 or out:
+            print("init failed: {}".format(out.strip()))
+            sys.exit(1)
+
+        threads = [Thread(target=worker, args=(i,)) for i in range(workers)]
+        reader_threads = [Thread(target=reader) for _ in range(readers)]
+        for thread in threads + reader_threads:
+            thread.start()
+        for thread in threads:
+            thread.join()
+        stop.set()
+        for thread in reader_threads:
+            thread.join()
+        verify()
+
+        print("{} workers, {} files each: {} commits made."
+              .format(workers, commits, len(committed)))
+        for error in errors[:20]:
+            print("ERROR: " + error)
+        print("Passed." if not errors else "{} errors.".format(len(errors)))
+        sys.exit(1 if errors else 0)
+    finally:
+        if keep:
+            print("Repository kept in " + repo_dir)
+        else:
+            rmtree(repo_dir, ignore_errors=True)
@@ -3,7 +3,7 @@ from subprocess import \
      check_output, PIPE, STDOUT, DEVNULL, CalledProcessError, TimeoutExpired
 from os.path import abspath, basename, dirname, exists, join, splitext
 from getopt import getopt, GetoptError
-from os import chdir, environ, getcwd, mkdir, remove, access, W_OK
+from os import chdir, environ, getcwd, makedirs, mkdir, remove, utime, access, W_OK
 from shutil import copyfile, rmtree
 from math import log
 
@@ -49,6 +49,11 @@ The instructions each have one of the following forms:
           seconds.
    + NAME F
           Copy the contents of src/F into a file named NAME.
+   ~ NAME F
+          Overwrite the file named NAME in place (keeping its inode) with the
+          contents of src/F, and set its modification time to a fixed time
+          in the future.  Changes of the same size then have the same stat
+          data, like changes within one modification time tick.
    - NAME
           Delete the file named NAME.
    > COMMAND OPERANDS
@@ -88,6 +93,9 @@ faulty TEST.in files."""
 
 TIMEOUT = 10
 
+# Modification time set by "~" (2100-01-01), later than any index file.
+FUTURE_TIME = 4102444800
+
 JAVA_COMMAND = "java -ea"
 GITLET_CLASS = "gitlet.Main"
 JVM_OPTIONS = "-agentlib:jdwp=transport=dt_socket,server=y,suspend=y,address=5005"
@@ -152,10 +160,20 @@ def doDelete(name, dir):
 def doCopy(dest, src, dir):
     try:
         doDelete(dest, dir)
+        makedirs(dirname(join(dir, dest)), exist_ok=True)
         copyfile(join(src_dir, src), join(dir, dest))
     except OSError:
         raise ValueError("file {} could not be copied to {}".format(src, dest))
 
+def doOverwrite(dest, src, dir):
+    try:
+        with open(join(src_dir, src), 'rb') as inp, open(join(dir, dest), 'r+b' if exists(join(dir, dest)) else 'wb') as out:
+            out.write(inp.read())
+            out.truncate()
+        utime(join(dir, dest), (FUTURE_TIME, FUTURE_TIME))
+    except OSError:
+        raise ValueError("file {} could not be written to {}".format(src, dest))
+
 def doExecute(cmnd, dir, timeout, line_num):
     here = getcwd()
     out = ""
@@ -336,6 +354,8 @@ def doTest(test):
                     ValueError("bad time: {}".format(line))
             elif Match(r'\+\s*(\S+)\s+(\S+)', line):
                 doCopy(Group(1), Group(2), cdir)
+            elif Match(r'~\s*(\S+)\s+(\S+)', line):
+                doOverwrite(Group(1), Group(2), cdir)
             elif Match(r'-\s*(\S+)', line):
                 doDelete(Group(1), cdir)
             elif Match(r'>\s*(.*)', line):